@@ -0,0 +1,330 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import com.alipay.sofa.jraft.rhea.util.ByteArray;
+import com.alipay.sofa.jraft.util.NamedThreadFactory;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.ArrayUtils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流水线方式订阅KVStore里的包, 和PackSubscriber相比网络和解码互相重叠
+ * 1.追赶时同时有pipelineDepth个范围的异步scan在途, 每个分片的结果到达后在解码线程池里解码, 投递线程只按顺序取结果
+ * 2.某个范围没有取满说明已追上或中间缺号, 不再发新的范围, 已在途的范围照常收完; 之后一次只取一个范围, 没有进展时退避
+ * 3.中间缺号时已收到的后续包留在内存里, 退避后只用multiGet补取缺的key; 等待和跳过的规则和PackSubscriber一样用PackGaps,
+ *   内存里没有后续的包时向后探测下一个现存的包, 缺号段比一页长也不会卡住
+ * 4.游标和心跳的保存方式和PackSubscriber相同, 两者可以换用同一个名字
+ */
+@Slf4j
+public class AsyncPackReader {
+
+    private final RheaKVStore rheaKVStore;
+
+    private final BodyCodec bodyCodec;
+
+    private final PackKeys packKeys;
+
+    @Getter
+    private final String name;
+
+    private final PackListener listener;
+
+    private final byte[] cursorKey;
+
+    private final ExecutorService decodePool;
+
+    /**
+     * 每个范围的packNo数量
+     */
+    @Setter
+    private int pageSize = 1000;
+
+    /**
+     * 追赶时同时在途的范围数量
+     */
+    @Setter
+    private int pipelineDepth = 4;
+
+    @Setter
+    private long minBackoffMs = 1;
+
+    @Setter
+    private long maxBackoffMs = 100;
+
+    @Setter
+    private long gapTimeoutMs = 5000;
+
+    @Setter
+    private long cursorCommitMs = 1000;
+
+    /**
+     * 一致性级别, 必须和RheaKVStore初始化时的onlyLeaderRead一致
+     */
+    @Setter
+    private ReadConsistency readConsistency = ReadConsistency.LINEARIZABLE;
+
+    /**
+     * FOLLOWER_READ时结果最多落后的时间, 见StalenessBound
+     */
+    @Setter
+    private long maxStalenessMs = 1000;
+
+    private StalenessBound stalenessBound;
+
+    @Setter
+    private PackMetrics metrics = PackMetrics.noop();
+
+    private final RateLimiter errorLogLimiter = RateLimiter.create(1);
+
+    /**
+     * 下一个要投递的packNo
+     */
+    @Getter
+    private volatile long cursor;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    /**
+     * @param decodeThreads 解码线程数, 一般取分片数即可
+     */
+    public AsyncPackReader(RheaKVStore rheaKVStore, BodyCodec bodyCodec, PackKeys packKeys,
+                           String name, PackListener listener, int decodeThreads) {
+        this.rheaKVStore = rheaKVStore;
+        this.bodyCodec = bodyCodec;
+        this.packKeys = packKeys;
+        this.name = name;
+        this.listener = listener;
+        this.cursorKey = PackSubscriber.cursorKey(name);
+        this.decodePool = Executors.newFixedThreadPool(decodeThreads, new NamedThreadFactory("pack-decode-" + name, true));
+    }
+
+    public void start() {
+        cursor = PackSubscriber.loadCursor(rheaKVStore, cursorKey, name);
+        log.info("[AsyncPackReader] {} start from packNo {}", name, cursor);
+        stalenessBound = new StalenessBound(rheaKVStore, packKeys, maxStalenessMs);
+        running = true;
+        thread = new Thread(this::runLoop, "async-pack-reader-" + name);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+        decodePool.shutdownNow();
+        rheaKVStore.bPut(cursorKey, PackSubscriber.cursorValue(cursor));
+    }
+
+    /**
+     * 在途的请求, 结果是 packNo -> 解码后的包, 解码失败的包值为null
+     */
+    private static class Fetch {
+        private final long to;
+        private final long startNanos = System.nanoTime();
+        private final CompletableFuture<TreeMap<Long, StrsPack>> future;
+
+        private Fetch(long to, CompletableFuture<TreeMap<Long, StrsPack>> future) {
+            this.to = to;
+            this.future = future;
+        }
+    }
+
+    private void runLoop() {
+        Deque<Fetch> inFlight = new ArrayDeque<>();
+        //已解码但前面还有缺号的包
+        TreeMap<Long, StrsPack> ready = new TreeMap<>();
+        PackGaps gaps = new PackGaps(rheaKVStore, packKeys, name, gapTimeoutMs);
+        long nextFrom = cursor;
+        boolean caughtUp = false;
+        long backoffMs = minBackoffMs;
+        long lastCommitNanos = System.nanoTime();
+
+        while (running) {
+            try {
+                int depth = caughtUp ? 1 : pipelineDepth;
+                while (inFlight.size() < depth) {
+                    inFlight.add(scan(nextFrom, nextFrom + pageSize));
+                    nextFrom += pageSize;
+                }
+
+                Fetch head = inFlight.pollFirst();
+                ready.putAll(head.future.get());
+                PackMetrics.record(metrics.getReadTimer(), head.startNanos);
+
+                long from = cursor;
+                List<StrsPack> packs = Lists.newArrayList();
+                while (!ready.isEmpty() && ready.firstKey() <= cursor) {
+                    Map.Entry<Long, StrsPack> entry = ready.pollFirstEntry();
+                    if (entry.getKey() == cursor) {
+                        if (entry.getValue() != null) {
+                            packs.add(entry.getValue());
+                        }
+                        cursor++;
+                    }
+                }
+                if (cursor > from) {
+                    listener.onPacks(packs);
+                    gaps.reset();
+                }
+
+                //游标没有前进也要保存, 刷新心跳
+                if (System.nanoTime() - lastCommitNanos > TimeUnit.MILLISECONDS.toNanos(cursorCommitMs)) {
+                    rheaKVStore.put(cursorKey, PackSubscriber.cursorValue(cursor));
+                    lastCommitNanos = System.nanoTime();
+                }
+
+                if (cursor >= head.to) {
+                    //这个范围全部投递了, 还有积压, 恢复流水线
+                    caughtUp = false;
+                    backoffMs = minBackoffMs;
+                    continue;
+                }
+                //没取满, 不再发新的范围, 已经在途的范围照常收完
+                caughtUp = true;
+                if (!inFlight.isEmpty()) {
+                    continue;
+                }
+
+                //在途的都收完了, 游标处仍缺号: 找后面第一个现存的包, ready为空时向后探测
+                long next = !ready.isEmpty() ? ready.firstKey() : cursor > from ? -1 : gaps.probe(nextFrom);
+                if (next >= 0) {
+                    long skipTo = gaps.onGap(cursor, next);
+                    if (skipTo > cursor) {
+                        cursor = skipTo;
+                        ready.headMap(cursor).clear();
+                        nextFrom = ready.isEmpty() ? cursor : ready.lastKey() + 1;
+                        backoffMs = minBackoffMs;
+                        continue;
+                    }
+                } else {
+                    gaps.reset();
+                }
+                //已追上或等待缺号补上, 没有进展时退避, 不要每次都立刻重读
+                backoffMs = cursor > from ? minBackoffMs : Math.min(backoffMs * 2, maxBackoffMs);
+                Thread.sleep(backoffMs);
+                if (ready.isEmpty()) {
+                    nextFrom = cursor;
+                } else {
+                    //后续的包已经在内存里, 只补取缺的key
+                    nextFrom = ready.lastKey() + 1;
+                    inFlight.add(multiGet(cursor, Math.min(ready.firstKey(), cursor + pageSize)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                metrics.failures("read").increment();
+                if (errorLogLimiter.tryAcquire()) {
+                    log.error("[AsyncPackReader] {} poll error, retry from packNo {}", name, cursor, e);
+                }
+                inFlight.clear();
+                ready.clear();
+                nextFrom = cursor;
+                caughtUp = true;
+                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 每个分片异步scan [from, to), 各分片的结果一到达就交给解码线程池, 最后合并
+     * FOLLOWER_READ的结果没有覆盖到水位时改用ReadIndex重读, 见StalenessBound
+     */
+    private Fetch scan(long from, long to) {
+        if (readConsistency != ReadConsistency.FOLLOWER_READ) {
+            return new Fetch(to, scanAsync(from, to, true));
+        }
+        long watermark = stalenessBound.watermark();
+        CompletableFuture<TreeMap<Long, StrsPack>> future = scanAsync(from, to, false).thenCompose(packs -> {
+            long contiguousEnd = from;
+            while (packs.containsKey(contiguousEnd)) {
+                contiguousEnd++;
+            }
+            return StalenessBound.covers(contiguousEnd, to, watermark)
+                    ? CompletableFuture.completedFuture(packs) : scanAsync(from, to, true);
+        });
+        return new Fetch(to, future);
+    }
+
+    private CompletableFuture<TreeMap<Long, StrsPack>> scanAsync(long from, long to, boolean readOnlySafe) {
+        int regionCount = packKeys.getRegionCount();
+        CompletableFuture<TreeMap<Long, StrsPack>> merged = CompletableFuture.completedFuture(new TreeMap<>());
+        for (int shard = 0; shard < regionCount; shard++) {
+            CompletableFuture<TreeMap<Long, StrsPack>> decoded = rheaKVStore
+                    .scan(packKeys.packKey(shard, from), packKeys.packKey(shard, to), readOnlySafe)
+                    .thenApplyAsync(this::decode, decodePool);
+            merged = merged.thenCombine(decoded, (all, part) -> {
+                all.putAll(part);
+                return all;
+            });
+        }
+        return merged;
+    }
+
+    /**
+     * 只取 [from, to) 里缺少的key, 用于补中间的缺号
+     * 总是走ReadIndex, follower落后造成的缺号不会被当成真正的缺号跳过
+     */
+    private Fetch multiGet(long from, long to) {
+        List<byte[]> keys = Lists.newArrayListWithCapacity((int) (to - from));
+        for (long packNo = from; packNo < to; packNo++) {
+            keys.add(packKeys.packKey(packNo));
+        }
+        CompletableFuture<TreeMap<Long, StrsPack>> future = rheaKVStore.multiGet(keys, true)
+                .thenApplyAsync(values -> {
+                    List<KVEntry> entries = Lists.newArrayListWithCapacity(values.size());
+                    for (Map.Entry<ByteArray, byte[]> entry : values.entrySet()) {
+                        if (ArrayUtils.isNotEmpty(entry.getValue())) {
+                            entries.add(new KVEntry(entry.getKey().getBytes(), entry.getValue()));
+                        }
+                    }
+                    return decode(entries);
+                }, decodePool);
+        return new Fetch(to, future);
+    }
+
+    private TreeMap<Long, StrsPack> decode(List<KVEntry> entries) {
+        TreeMap<Long, StrsPack> packs = new TreeMap<>();
+        for (KVEntry entry : entries) {
+            long packNo = PackKeys.packNoOf(entry.getKey());
+            StrsPack strsPack = null;
+            if (ArrayUtils.isNotEmpty(entry.getValue())) {
+                try {
+                    strsPack = bodyCodec.deserialize(entry.getValue(), StrsPack.class);
+                } catch (Exception e) {
+                    //数据本身损坏, 重试也没有用, 跳过
+                    metrics.failures("decode").increment();
+                    if (errorLogLimiter.tryAcquire()) {
+                        log.error("[AsyncPackReader] {} decode pack {} error", name, packNo, e);
+                    }
+                }
+            }
+            packs.put(packNo, strsPack);
+        }
+        return packs;
+    }
+}
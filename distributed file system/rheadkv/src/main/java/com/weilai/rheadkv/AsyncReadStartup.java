@@ -0,0 +1,57 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
+import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
+import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 用AsyncPackReader订阅, 追赶大量积压时比ReadStartup快
+ * 参数: [流水线深度, 默认4] [解码线程数, 默认为分片数]
+ */
+@Slf4j
+public class AsyncReadStartup {
+    private static RheaKVStore rheaKVStore = new DefaultRheaKVStore();
+    //读取时按值里的版本字节选择解码器和解压方式
+    private static BodyCodec bodyCodec = new VersionedBodyCodec(CodecType.HESSIAN2, PayloadCompressor.none());
+    //启动时从集群读取regioncount
+    private static PackKeys packKeys;
+    private static ReadConsistency readConsistency = ReadConsistency.FOLLOWER_READ;
+
+    public static void main(String[] args) throws InterruptedException {
+        String seqUrlList = "127.0.0.1:8891,127.0.0.1:8892,127.0.0.1:8893";
+        packKeys = ClusterMeta.loadPackKeys(seqUrlList);
+        int pipelineDepth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int decodeThreads = args.length > 1 ? Integer.parseInt(args[1]) : packKeys.getRegionCount();
+        final PlacementDriverOptions pdOptions = PlacementDriverOptionsConfigured.newConfigured()
+                .withFake(true)
+                .withRegionRouteTableOptionsList(RegionLayout.routeTableOptions(packKeys.getRegionCount(), seqUrlList))
+                .config();
+        final RheaKVStoreOptions options = RheaKVStoreOptionsConfigured.newConfigured()
+                .withPlacementDriverOptions(pdOptions)
+                .withOnlyLeaderRead(readConsistency.isOnlyLeaderRead())
+                .config();
+        rheaKVStore.init(options);
+        ClusterMeta.checkReadConsistency(rheaKVStore, readConsistency);
+
+        AsyncPackReader reader = new AsyncPackReader(rheaKVStore, bodyCodec, packKeys, "async-read-startup", packs -> {
+            if (!packs.isEmpty()) {
+                log.info("received {} packs, last packNo = {}", packs.size(), packs.get(packs.size() - 1).getPackNo());
+            }
+        }, decodeThreads);
+        reader.setPipelineDepth(pipelineDepth);
+        reader.setReadConsistency(readConsistency);
+        reader.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                reader.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Thread.currentThread().join();
+    }
+}
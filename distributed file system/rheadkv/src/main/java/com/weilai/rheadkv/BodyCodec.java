@@ -1,16 +1,37 @@
 package com.weilai.rheadkv;
 
 import com.alipay.remoting.exception.CodecException;
-import com.alipay.remoting.serialization.SerializerManager;
 
-public class BodyCodec {
-    public <T> byte[] serialize(T obj) throws CodecException {
-        byte[] bytes = SerializerManager.getSerializer(SerializerManager.Hessian2).serialize(obj);
-        return bytes;
-    }
+import java.util.Arrays;
+
+public interface BodyCodec {
+
+    /**
+     * 将Java对象变成字节数组
+     */
+    <T> byte[] serialize(T obj) throws CodecException;
 
-    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
-        return SerializerManager.getSerializer(SerializerManager.Hessian2).deserialize(bytes, clazz.getName());
+    /**
+     * 将字节数组转换为Java对象
+     */
+    <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException;
+
+    /**
+     * 序列化时在数组最前面预留headroom个字节, 给外层写头部用, 省掉一次拷贝
+     * 默认实现会拷贝一次, 能直接写入预留位置的编码器应当覆盖
+     */
+    default <T> byte[] serialize(T obj, int headroom) throws CodecException {
+        byte[] bytes = serialize(obj);
+        byte[] result = new byte[headroom + bytes.length];
+        System.arraycopy(bytes, 0, result, headroom, bytes.length);
+        return result;
     }
 
-}
\ No newline at end of file
+    /**
+     * 从数组的一段中反序列化
+     * 默认实现会拷贝一次, 能直接读取数组片段的编码器应当覆盖
+     */
+    default <T> T deserialize(byte[] bytes, int offset, int length, Class<T> clazz) throws CodecException {
+        return deserialize(Arrays.copyOfRange(bytes, offset, offset + length), clazz);
+    }
+}
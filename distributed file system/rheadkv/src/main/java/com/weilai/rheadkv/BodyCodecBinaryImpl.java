@@ -0,0 +1,91 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.exception.CodecException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 只支持StrsPack的手写二进制编码
+ * [packNo long][strs个数 int, -1表示null]{[长度 int, -1表示null][UTF-8字节]}...
+ */
+public class BodyCodecBinaryImpl implements BodyCodec {
+
+    @Override
+    public <T> byte[] serialize(T obj) throws CodecException {
+        return serialize(obj, 0);
+    }
+
+    @Override
+    public <T> byte[] serialize(T obj, int headroom) throws CodecException {
+        if (!(obj instanceof StrsPack)) {
+            throw new CodecException("binary codec only supports StrsPack: " + (obj == null ? null : obj.getClass()));
+        }
+        StrsPack pack = (StrsPack) obj;
+        List<String> strs = pack.getStrs();
+
+        //先编码字符串, 算出总长度后一次分配
+        byte[][] encoded = null;
+        int length = headroom + 8 + 4;
+        if (strs != null) {
+            encoded = new byte[strs.size()][];
+            for (int i = 0; i < encoded.length; i++) {
+                String str = strs.get(i);
+                encoded[i] = str == null ? null : str.getBytes(StandardCharsets.UTF_8);
+                length += 4 + (encoded[i] == null ? 0 : encoded[i].length);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.position(headroom);
+        buffer.putLong(pack.getPackNo());
+        buffer.putInt(encoded == null ? -1 : encoded.length);
+        if (encoded != null) {
+            for (byte[] bytes : encoded) {
+                if (bytes == null) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(bytes.length);
+                    buffer.put(bytes);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
+        return deserialize(bytes, 0, bytes.length, clazz);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, int offset, int length, Class<T> clazz) throws CodecException {
+        if (clazz != StrsPack.class) {
+            throw new CodecException("binary codec only supports StrsPack: " + clazz.getName());
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            long packNo = buffer.getLong();
+            int size = buffer.getInt();
+            List<String> strs = null;
+            if (size >= 0) {
+                strs = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    int len = buffer.getInt();
+                    if (len < 0) {
+                        strs.add(null);
+                    } else {
+                        strs.add(new String(bytes, buffer.position(), len, StandardCharsets.UTF_8));
+                        buffer.position(buffer.position() + len);
+                    }
+                }
+            }
+            return clazz.cast(new StrsPack(packNo, strs));
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new CodecException("binary deserialize error", e);
+        }
+    }
+}
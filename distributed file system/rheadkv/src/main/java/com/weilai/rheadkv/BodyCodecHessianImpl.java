@@ -0,0 +1,23 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.exception.CodecException;
+import com.alipay.remoting.serialization.Serializer;
+import com.alipay.remoting.serialization.SerializerManager;
+
+/**
+ * Hessian2编码, 通用但每个包里都带着完整的类名
+ */
+public class BodyCodecHessianImpl implements BodyCodec {
+
+    private final Serializer serializer = SerializerManager.getSerializer(SerializerManager.Hessian2);
+
+    @Override
+    public <T> byte[] serialize(T obj) throws CodecException {
+        return serializer.serialize(obj);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
+        return serializer.deserialize(bytes, clazz.getName());
+    }
+}
@@ -0,0 +1,122 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.exception.CodecException;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Kryo编码
+ * 1.Kryo不是线程安全的, 用Pool复用实例
+ * 2.必须预先注册类, 包里只写注册号, 不写类名
+ * 3.编码用线程内复用的Output, 编码完按实际长度拷贝一次; Output被大包撑到MAX_OUTPUT_BYTES以上时换回小缓冲区
+ */
+public class BodyCodecKryoImpl implements BodyCodec {
+
+    private static final int STRS_PACK_ID = 10;
+
+    private static final int INITIAL_OUTPUT_BYTES = 64 * 1024;
+
+    /**
+     * 线程内复用的Output超过这个长度就不再保留, 避免偶尔的大包长期占用内存
+     */
+    private static final int MAX_OUTPUT_BYTES = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(() -> new Output(INITIAL_OUTPUT_BYTES, -1));
+
+    private final Pool<Kryo> kryoPool = new Pool<Kryo>(true, false, 16) {
+        @Override
+        protected Kryo create() {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(true);
+            //注册号是编码格式的一部分, 不能修改
+            kryo.register(StrsPack.class, new StrsPackSerializer(), STRS_PACK_ID);
+            return kryo;
+        }
+    };
+
+    @Override
+    public <T> byte[] serialize(T obj) throws CodecException {
+        return serialize(obj, 0);
+    }
+
+    @Override
+    public <T> byte[] serialize(T obj, int headroom) throws CodecException {
+        Kryo kryo = kryoPool.obtain();
+        Output output = OUTPUT.get();
+        try {
+            output.reset();
+            output.setPosition(headroom);
+            kryo.writeClassAndObject(output, obj);
+            return output.toBytes();
+        } catch (KryoException | IllegalArgumentException e) {
+            //未注册的类会抛IllegalArgumentException
+            throw new CodecException("kryo serialize error", e);
+        } finally {
+            kryoPool.free(kryo);
+            if (output.getBuffer().length > MAX_OUTPUT_BYTES) {
+                output.setBuffer(new byte[INITIAL_OUTPUT_BYTES], -1);
+            }
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
+        return deserialize(bytes, 0, bytes.length, clazz);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, int offset, int length, Class<T> clazz) throws CodecException {
+        Kryo kryo = kryoPool.obtain();
+        try {
+            Object obj = kryo.readClassAndObject(new Input(bytes, offset, length));
+            if (!clazz.isInstance(obj)) {
+                throw new CodecException("Deserialized object is not of expected type: " + clazz.getName());
+            }
+            return clazz.cast(obj);
+        } catch (KryoException e) {
+            throw new CodecException("kryo deserialize error", e);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * strs可能是Arrays.asList之类没有无参构造的List, 不能交给Kryo反射, 按字段手写
+     */
+    private static class StrsPackSerializer extends Serializer<StrsPack> {
+
+        @Override
+        public void write(Kryo kryo, Output output, StrsPack pack) {
+            output.writeLong(pack.getPackNo());
+            List<String> strs = pack.getStrs();
+            //长度+1, 0表示null
+            output.writeVarInt(strs == null ? 0 : strs.size() + 1, true);
+            if (strs != null) {
+                for (String str : strs) {
+                    output.writeString(str);
+                }
+            }
+        }
+
+        @Override
+        public StrsPack read(Kryo kryo, Input input, Class<? extends StrsPack> type) {
+            long packNo = input.readLong();
+            int size = input.readVarInt(true) - 1;
+            List<String> strs = null;
+            if (size >= 0) {
+                strs = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    strs.add(input.readString());
+                }
+            }
+            return new StrsPack(packNo, strs);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
+import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
+import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * 在一个JVM里启动3节点集群(回环地址, 临时数据目录), 施加读写混合负载
+ * 写请求和生产者一样发布到排队机leader的PackSequencer, 经SequencerHandler分配packNo、按packbatchsize/packflushms打包后写入Raft,
+ * 等包提交后的ack才算完成; 读请求通过RheaKVStore客户端随机读已提交的包
+ * 统计: 写入/读取吞吐, 提交延迟(含排队和打包)和读延迟的p50/p99/p999, 可以在运行中途停掉排队机leader测量故障切换的停顿时间
+ * 运行参数为 key=value 形式, 除下面几项外都会传给NodeConfig, 例如 storagetype=RocksDB codec=KRYO packbatchsize=100
+ * durationsecs=30 压测时长(不含预热)
+ * warmupsecs=5 预热时长, 预热期间的数据不计入结果
+ * threads=64 并发线程数, 每个线程同步地发出请求; 线程太少时包攒不满, 只能等packflushms
+ * writeratio=0.5 写请求的比例, 其余为读请求
+ * strsperrequest=10 每个写请求的字符串数, 多个请求合成一个包
+ * killleaderatsecs=-1 压测开始后多少秒停掉排队机leader, 小于0不停
+ */
+@Slf4j
+public class ClusterBenchmark {
+
+    private static final String SERVER_LIST = "127.0.0.1:18901,127.0.0.1:18902,127.0.0.1:18903";
+
+    private static final long LEADER_TIMEOUT_MS = 30_000;
+
+    private static final long MAX_LATENCY_US = TimeUnit.MINUTES.toMicros(1);
+
+    private final Properties properties;
+
+    private final int durationSecs;
+
+    private final int warmupSecs;
+
+    private final int threads;
+
+    private final double writeRatio;
+
+    private final int strsPerRequest;
+
+    private final int killLeaderAtSecs;
+
+    private final List<NodeConfig> nodes = Lists.newArrayList();
+
+    private final List<Path> dataDirs = Lists.newArrayList();
+
+    private final List<NodeConfig> killed = new CopyOnWriteArrayList<>();
+
+    private RheaKVStore client;
+
+    private PackKeys packKeys;
+
+    private final Histogram commitLatency = new ConcurrentHistogram(MAX_LATENCY_US, 3);
+
+    private final Histogram readLatency = new ConcurrentHistogram(MAX_LATENCY_US, 3);
+
+    private final LongAdder writes = new LongAdder();
+
+    private final LongAdder reads = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * 每秒的写入数, 用来观察故障切换时吞吐掉到0的过程
+     */
+    private final LongAdder writesPerSecond = new LongAdder();
+
+    private final AtomicLong committedPackNo = new AtomicLong(-1);
+
+    /**
+     * 每个分片最近一次写入成功的时间, 停掉leader后分片最长的写入间隔就是该分片的停顿时间
+     */
+    private AtomicLongArray lastCommitNanos;
+
+    private final AtomicLong maxStallNanos = new AtomicLong();
+
+    private volatile long killNanos = Long.MAX_VALUE;
+
+    private volatile boolean running = true;
+
+    public ClusterBenchmark(Properties properties) {
+        this.properties = properties;
+        this.durationSecs = Integer.parseInt(properties.getProperty("durationsecs", "30"));
+        this.warmupSecs = Integer.parseInt(properties.getProperty("warmupsecs", "5"));
+        this.threads = Integer.parseInt(properties.getProperty("threads", "64"));
+        this.writeRatio = Double.parseDouble(properties.getProperty("writeratio", "0.5"));
+        this.strsPerRequest = Integer.parseInt(properties.getProperty("strsperrequest", "10"));
+        this.killLeaderAtSecs = Integer.parseInt(properties.getProperty("killleaderatsecs", "-1"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("regioncount", "3");
+        properties.setProperty("codec", CodecType.BINARY.name());
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            properties.setProperty(kv[0], kv[1]);
+        }
+        ClusterBenchmark benchmark = new ClusterBenchmark(properties);
+        try {
+            benchmark.startCluster();
+            benchmark.run();
+            benchmark.report();
+        } finally {
+            benchmark.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private void startCluster() throws Exception {
+        String[] servers = SERVER_LIST.split(",");
+        for (String server : servers) {
+            Path dataDir = Files.createTempDirectory("rheadkv-cluster-bench-");
+            dataDirs.add(dataDir);
+            Properties nodeProperties = new Properties();
+            nodeProperties.putAll(properties);
+            nodeProperties.setProperty("datapath", dataDir.toString());
+            nodeProperties.setProperty("serveurl", server);
+            nodeProperties.setProperty("serverlist", SERVER_LIST);
+            NodeConfig nodeConfig = new NodeConfig("cluster-benchmark");
+            nodeConfig.initConfig(nodeProperties);
+            nodes.add(nodeConfig);
+        }
+        //节点并行启动, 否则先启动的节点要等后面的节点才能完成选举
+        CountDownLatch started = new CountDownLatch(nodes.size());
+        for (NodeConfig nodeConfig : nodes) {
+            new Thread(() -> {
+                try {
+                    nodeConfig.startSeqDbCluster();
+                    nodeConfig.startupSequencer();
+                } finally {
+                    started.countDown();
+                }
+            }, "bench-start-" + nodeConfig.getServeUrl()).start();
+        }
+        started.await();
+
+        NodeConfig first = nodes.get(0);
+        packKeys = first.getPackKeys();
+        final PlacementDriverOptions pdOptions = PlacementDriverOptionsConfigured.newConfigured()
+                .withFake(true)
+                .withRegionRouteTableOptionsList(RegionLayout.routeTableOptions(packKeys.getRegionCount(), SERVER_LIST))
+                .config();
+        final RheaKVStoreOptions options = RheaKVStoreOptionsConfigured.newConfigured()
+                .withPlacementDriverOptions(pdOptions)
+                .config();
+        client = new DefaultRheaKVStore();
+        client.init(options);
+        lastCommitNanos = new AtomicLongArray(packKeys.getRegionCount());
+
+        //每个region都能完成一次线性一致读, 说明所有region都选出了leader
+        long deadline = System.currentTimeMillis() + LEADER_TIMEOUT_MS;
+        for (int shard = 0; shard < packKeys.getRegionCount(); shard++) {
+            while (true) {
+                try {
+                    client.bGet(packKeys.packNoKey(shard));
+                    break;
+                } catch (Exception e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException("no leader elected in " + LEADER_TIMEOUT_MS + " ms", e);
+                    }
+                    Thread.sleep(100);
+                }
+            }
+        }
+        log.info("[ClusterBenchmark] cluster started: {}", SERVER_LIST);
+    }
+
+    private void run() throws InterruptedException {
+        List<String> strs = Lists.newArrayListWithCapacity(strsPerRequest);
+        for (int i = 0; i < strsPerRequest; i++) {
+            strs.add("benchmark-str-" + i);
+        }
+        List<Thread> workers = Lists.newArrayList();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                while (running) {
+                    if (ThreadLocalRandom.current().nextDouble() < writeRatio) {
+                        write(strs);
+                    } else {
+                        read();
+                    }
+                }
+            }, "bench-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSecs);
+        commitLatency.reset();
+        readLatency.reset();
+        writes.reset();
+        reads.reset();
+        errors.reset();
+        maxStallNanos.set(0);
+
+        for (int second = 1; second <= durationSecs; second++) {
+            TimeUnit.SECONDS.sleep(1);
+            log.info("[ClusterBenchmark] second {} writes/s is: {}", second, writesPerSecond.sumThenReset());
+            if (second == killLeaderAtSecs) {
+                killLeader();
+            }
+        }
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * 和生产者一样发布到排队机leader, 包提交后ack返回packNo
+     */
+    private void write(List<String> strs) {
+        long start = System.nanoTime();
+        long packNo;
+        try {
+            NodeConfig leader = leader();
+            CompletableFuture<Long> ack = new CompletableFuture<>();
+            //producerId为null, 不去重
+            leader.getSequencer().publish(new IngestRequest(strs, null, 0), ack);
+            packNo = ack.get(LEADER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            errors.increment();
+            //没有leader或者leader刚切换, 稍等再试, 不空转
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            return;
+        }
+        long now = System.nanoTime();
+        commitLatency.recordValue(Math.min(MAX_LATENCY_US, (now - start) / 1000));
+        writes.increment();
+        writesPerSecond.increment();
+        committedPackNo.accumulateAndGet(packNo, Math::max);
+
+        int shard = packKeys.shardOf(packNo);
+        long last = lastCommitNanos.getAndSet(shard, now);
+        if (now > killNanos && last > 0) {
+            maxStallNanos.accumulateAndGet(now - last, Math::max);
+        }
+    }
+
+    private void read() {
+        long committed = committedPackNo.get();
+        if (committed < 0) {
+            return;
+        }
+        long packNo = ThreadLocalRandom.current().nextLong(committed + 1);
+        long start = System.nanoTime();
+        try {
+            client.get(packKeys.packKey(packNo)).get(LEADER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            errors.increment();
+            return;
+        }
+        readLatency.recordValue(Math.min(MAX_LATENCY_US, (System.nanoTime() - start) / 1000));
+        reads.increment();
+    }
+
+    /**
+     * @return 当前的排队机leader, 跳过已经停掉的节点
+     */
+    private NodeConfig leader() {
+        for (NodeConfig nodeConfig : nodes) {
+            if (!killed.contains(nodeConfig) && nodeConfig.getNode().isLeader()) {
+                return nodeConfig;
+            }
+        }
+        throw new IllegalStateException("no sequencer leader");
+    }
+
+    /**
+     * 停掉排队机所在region的leader节点, 该节点上其他region的leader也会一起失效
+     */
+    private void killLeader() {
+        NodeConfig leader;
+        try {
+            leader = leader();
+        } catch (IllegalStateException e) {
+            log.warn("[ClusterBenchmark] no leader to kill");
+            return;
+        }
+        log.info("[ClusterBenchmark] kill leader {}", leader.getServeUrl());
+        killNanos = System.nanoTime();
+        killed.add(leader);
+        leader.getSequencer().shutdown();
+        leader.getNode().stop();
+    }
+
+    private void report() {
+        log.info("[ClusterBenchmark] config is: {}", properties);
+        log.info("[ClusterBenchmark] writes/s is: {}, reads/s is: {}, errors is: {}",
+                writes.sum() / durationSecs, reads.sum() / durationSecs, errors.sum());
+        logLatency("commit", commitLatency);
+        logLatency("read", readLatency);
+        if (killLeaderAtSecs >= 0) {
+            log.info("[ClusterBenchmark] failover stall(ms) is: {}", maxStallNanos.get() / 1_000_000);
+        }
+    }
+
+    private static void logLatency(String name, Histogram histogram) {
+        log.info("[ClusterBenchmark] {} latency(us) is: p50={} p99={} p999={} max={} count={}", name,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getMaxValue(), histogram.getTotalCount());
+    }
+
+    private void shutdown() throws IOException {
+        if (client != null) {
+            client.shutdown();
+        }
+        for (NodeConfig nodeConfig : nodes) {
+            if (killed.contains(nodeConfig)) {
+                continue;
+            }
+            if (nodeConfig.getSequencer() != null) {
+                nodeConfig.getSequencer().shutdown();
+            }
+            if (nodeConfig.getNode() != null) {
+                nodeConfig.getNode().stop();
+            }
+        }
+        for (Path dataDir : dataDirs) {
+            try (Stream<Path> paths = Files.walk(dataDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
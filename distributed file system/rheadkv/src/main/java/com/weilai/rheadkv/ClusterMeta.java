@@ -0,0 +1,79 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.option.ReadOnlyOption;
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
+import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
+import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
+import com.alipay.sofa.jraft.util.BytesUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.ArrayUtils;
+
+/**
+ * 保存在集群里的全局配置, 读取端和工具从集群读取, 不需要和节点的配置文件手工保持一致
+ * 1.排队机leader每个任期开始时写入(不存在时)或校验(已存在时)regioncount, 和已有的值不一致时拒绝写入
+ * 2.排队机leader每个任期开始时写入本节点的readonlyoption, 读取端按它校验ReadConsistency, 所有节点必须配置同一个值
+ * 3.key在第一个region里(首字节为0), 读取端不知道region数时按一个region路由也能读到
+ */
+@Slf4j
+public final class ClusterMeta {
+
+    private ClusterMeta() {
+    }
+
+    /**
+     * 写入本节点配置的region数和readonlyoption, 集群里已有不同的region数时抛异常
+     */
+    static void publish(RheaKVStore rheaKVStore, int regionCount, ReadOnlyOption readOnlyOption) {
+        byte[] previous = rheaKVStore.bPutIfAbsent(PackKeys.regionCountKey(), PackKeys.longToBytes(regionCount));
+        if (ArrayUtils.isNotEmpty(previous) && PackKeys.bytesToLong(previous) != regionCount) {
+            throw new IllegalStateException("regioncount is " + regionCount + " but the cluster was created with "
+                    + PackKeys.bytesToLong(previous));
+        }
+        rheaKVStore.bPut(PackKeys.readOnlyOptionKey(), BytesUtil.writeUtf8(readOnlyOption.name()));
+    }
+
+    /**
+     * 集群的readonlyoption不满足readConsistency的要求时抛异常
+     */
+    public static void checkReadConsistency(RheaKVStore rheaKVStore, ReadConsistency readConsistency) {
+        if (readConsistency.getRequiredReadOnlyOption() == null) {
+            return;
+        }
+        byte[] bytes = rheaKVStore.bGet(PackKeys.readOnlyOptionKey());
+        String readOnlyOption = ArrayUtils.isEmpty(bytes) ? null : BytesUtil.readUtf8(bytes);
+        if (!readConsistency.getRequiredReadOnlyOption().name().equals(readOnlyOption)) {
+            throw new IllegalStateException(readConsistency + " requires readonlyoption="
+                    + readConsistency.getRequiredReadOnlyOption() + " but the cluster uses " + readOnlyOption);
+        }
+    }
+
+    /**
+     * 从集群读取region数, 集群还没有写入时抛异常, 避免按错误的region数拼key后一直读不到数据
+     */
+    public static PackKeys loadPackKeys(String serverList) {
+        RheaKVStore rheaKVStore = new DefaultRheaKVStore();
+        final PlacementDriverOptions pdOptions = PlacementDriverOptionsConfigured.newConfigured()
+                .withFake(true)
+                .withRegionRouteTableOptionsList(RegionLayout.routeTableOptions(1, serverList))
+                .config();
+        final RheaKVStoreOptions options = RheaKVStoreOptionsConfigured.newConfigured()
+                .withPlacementDriverOptions(pdOptions)
+                .config();
+        rheaKVStore.init(options);
+        try {
+            byte[] bytes = rheaKVStore.bGet(PackKeys.regionCountKey());
+            if (ArrayUtils.isEmpty(bytes)) {
+                throw new IllegalStateException("regioncount not found in cluster " + serverList
+                        + ", the sequencer leader writes it when it starts");
+            }
+            int regionCount = (int) PackKeys.bytesToLong(bytes);
+            log.info("regioncount of cluster is: {}", regionCount);
+            return new PackKeys(regionCount);
+        } finally {
+            rheaKVStore.shutdown();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.weilai.rheadkv;
+
+import lombok.Getter;
+
+import java.util.function.Supplier;
+
+/**
+ * 存储用的编码方式, id写在每个值的第一个字节里, 已经写入的id不能修改
+ */
+@Getter
+public enum CodecType {
+
+    HESSIAN2((byte) 1, BodyCodecHessianImpl::new),
+
+    KRYO((byte) 2, BodyCodecKryoImpl::new),
+
+    BINARY((byte) 3, BodyCodecBinaryImpl::new);
+
+    private final byte id;
+
+    private final Supplier<BodyCodec> factory;
+
+    CodecType(byte id, Supplier<BodyCodec> factory) {
+        this.id = id;
+        this.factory = factory;
+    }
+
+    public static CodecType of(byte id) {
+        for (CodecType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import com.alipay.sofa.jraft.rhea.client.RheaIterator;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
+import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
+import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 从集群中采样已经写入的pack, 训练Zstd字典并写到文件里, 配置到 compression.zstd.dict 后生效
+ * 同时打印样本在各压缩方式下的压缩率和耗时, 用来决定是否值得开启压缩
+ * 参数: 字典输出路径 [codec] [样本数] [字典大小]
+ * 注意: 字典一旦用于写入就不能再更换, 读取端也必须配置同一个字典
+ */
+@Slf4j
+public class CompressionDictTrainer {
+
+    private static final String SERVER_LIST = "127.0.0.1:8891,127.0.0.1:8892,127.0.0.1:8893";
+
+    //启动时从集群读取regioncount
+    private static PackKeys packKeys;
+
+    public static void main(String[] args) throws Exception {
+        String output = args.length > 0 ? args[0] : "zstd.dict";
+        CodecType codecType = args.length > 1 ? CodecType.valueOf(args[1]) : CodecType.BINARY;
+        int sampleCount = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        int dictSize = args.length > 3 ? Integer.parseInt(args[3]) : 16 * 1024;
+
+        packKeys = ClusterMeta.loadPackKeys(SERVER_LIST);
+        RheaKVStore rheaKVStore = new DefaultRheaKVStore();
+        final PlacementDriverOptions pdOptions = PlacementDriverOptionsConfigured.newConfigured()
+                .withFake(true)
+                .withRegionRouteTableOptionsList(RegionLayout.routeTableOptions(packKeys.getRegionCount(), SERVER_LIST))
+                .config();
+        final RheaKVStoreOptions options = RheaKVStoreOptionsConfigured.newConfigured()
+                .withPlacementDriverOptions(pdOptions)
+                .config();
+        rheaKVStore.init(options);
+        try {
+            List<byte[]> samples = sample(rheaKVStore, codecType, sampleCount);
+            if (samples.isEmpty()) {
+                log.warn("no pack found, dictionary is not trained");
+                return;
+            }
+            byte[] dictionary = PayloadCompressor.trainDictionary(samples, dictSize);
+            Files.write(Paths.get(output), dictionary);
+            log.info("trained dictionary from {} samples, size is: {}, output is: {}", samples.size(), dictionary.length, output);
+
+            report(new PayloadCompressor(CompressionType.LZ4, 0, null), samples);
+            report(new PayloadCompressor(CompressionType.ZSTD, 0, null), samples);
+            report(new PayloadCompressor(CompressionType.ZSTD, 0, dictionary), samples);
+        } finally {
+            rheaKVStore.shutdown();
+        }
+    }
+
+    /**
+     * 每个分片采样 sampleCount / regionCount 个pack, 解码后按codecType重新编码, 样本不含版本字节
+     */
+    private static List<byte[]> sample(RheaKVStore rheaKVStore, CodecType codecType, int sampleCount) throws Exception {
+        BodyCodec reader = new VersionedBodyCodec(codecType);
+        BodyCodec writer = codecType.getFactory().get();
+        int perShard = Math.max(1, sampleCount / packKeys.getRegionCount());
+        List<byte[]> samples = new ArrayList<>(sampleCount);
+        for (int shard = 0; shard < packKeys.getRegionCount(); shard++) {
+            RheaIterator<KVEntry> iterator = rheaKVStore.iterator(PackKeys.shardStartKey(shard), PackKeys.shardStartKey(shard + 1), 256);
+            int count = 0;
+            while (count < perShard && iterator.hasNext()) {
+                KVEntry entry = iterator.next();
+                //跳过packNo计数器等非pack的key
+                if (entry.getKey().length != 9) {
+                    continue;
+                }
+                StrsPack strsPack = reader.deserialize(entry.getValue(), StrsPack.class);
+                samples.add(writer.serialize(strsPack));
+                count++;
+            }
+        }
+        return samples;
+    }
+
+    private static void report(PayloadCompressor compressor, List<byte[]> samples) throws Exception {
+        for (byte[] sample : samples) {
+            byte[] compressed = compressor.compress(sample, 0, sample.length, 0);
+            if (compressed != null) {
+                byte[] raw = compressor.decompress(compressor.getType(), compressed, 0, compressed.length);
+                if (!Arrays.equals(raw, sample)) {
+                    throw new IllegalStateException("round trip mismatch: " + compressor.getType());
+                }
+            }
+        }
+        log.info("{}", compressor);
+    }
+}
@@ -0,0 +1,29 @@
+package com.weilai.rheadkv;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 值的压缩方式, id写在版本字节的高4位里, 已经写入的id不能修改
+ */
+@Getter
+@AllArgsConstructor
+public enum CompressionType {
+
+    NONE((byte) 0),
+
+    LZ4((byte) 1),
+
+    ZSTD((byte) 2);
+
+    private final byte id;
+
+    public static CompressionType of(int id) {
+        for (CompressionType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,105 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.util.NamedThreadFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按负载调整抓取间隔的调度器, 替代固定频率的Timer
+ * 1.负载 = max(在途批次 / pauseInFlight, 订阅者最大落后包数 / maxReaderLag), 范围[0, 1]; 只算有心跳的订阅者(见reader.ttlsecs)
+ * 2.抓取间隔 = minIntervalMs + (maxIntervalMs - minIntervalMs) * 负载, 空闲时抓得快, 积压时抓得慢
+ * 3.负载达到1时暂停抓取, 只按maxIntervalMs检查, 等Raft提交和订阅者追上后再恢复
+ * 4.每次执行完才安排下一次, 抓取不会重叠; 抓取抛出的异常只计数, 不会让调度停止
+ */
+@Slf4j
+public class FetchScheduler implements Runnable {
+
+    private final NodeConfig nodeConfig;
+
+    private final Runnable fetchTask;
+
+    private final long minIntervalMs;
+
+    private final long maxIntervalMs;
+
+    private final int pauseInFlight;
+
+    /**
+     * 0表示不考虑订阅者落后
+     */
+    private final long maxReaderLag;
+
+    private final ScheduledExecutorService executor;
+
+    @Getter
+    private volatile long intervalMs;
+
+    @Getter
+    private volatile boolean paused;
+
+    private final Counter pausedTicks;
+
+    private final Counter fetchFailures;
+
+    public FetchScheduler(NodeConfig nodeConfig, Runnable fetchTask) {
+        this.nodeConfig = nodeConfig;
+        this.fetchTask = fetchTask;
+        this.minIntervalMs = nodeConfig.getFetchMinIntervalMs();
+        this.maxIntervalMs = nodeConfig.getFetchMaxIntervalMs();
+        this.pauseInFlight = Math.max(1, nodeConfig.getFetchPauseInFlight());
+        this.maxReaderLag = nodeConfig.getFetchMaxReaderLag();
+        this.intervalMs = maxIntervalMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("fetch-scheduler-", true));
+
+        PackMetrics metrics = nodeConfig.getMetrics();
+        Gauge.builder("rheadkv.fetch.interval", this, FetchScheduler::getIntervalMs).baseUnit("milliseconds")
+                .register(metrics.getRegistry());
+        Gauge.builder("rheadkv.fetch.paused", this, s -> s.isPaused() ? 1 : 0).register(metrics.getRegistry());
+        this.pausedTicks = metrics.getRegistry().counter("rheadkv.fetch.paused.ticks");
+        this.fetchFailures = metrics.failures("fetch");
+    }
+
+    public void start() {
+        executor.schedule(this, maxIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        try {
+            double load = load();
+            paused = load >= 1;
+            if (paused) {
+                pausedTicks.increment();
+                intervalMs = maxIntervalMs;
+            } else {
+                intervalMs = minIntervalMs + (long) ((maxIntervalMs - minIntervalMs) * load);
+                fetchTask.run();
+            }
+        } catch (Throwable e) {
+            fetchFailures.increment();
+            log.error("[FetchScheduler] fetch error", e);
+        } finally {
+            if (!executor.isShutdown()) {
+                executor.schedule(this, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private double load() {
+        double load = (double) nodeConfig.getPackWriter().getInFlight() / pauseInFlight;
+        if (maxReaderLag > 0) {
+            load = Math.max(load, (double) nodeConfig.getMetrics().getMaxReaderLag() / maxReaderLag);
+        }
+        return Math.min(1, load);
+    }
+}
@@ -0,0 +1,89 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.rpc.RpcClient;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 生产者使用的接入客户端
+ * 1.发送到当前认为的leader, 收到重定向就改发到新的leader
+ * 2.连接失败或leader未知时轮流尝试下一个地址
+ * 3.每批数据带上producerId和递增的seq, 重试时不变, leader据此去重, 超时重发不会重复入库
+ *   去重记录只在leader内存里, 重试期间发生leader切换时这批数据可能入库两次(at-least-once)
+ * 线程安全, 多个生产者线程可以共用一个客户端, 同一时刻的请求会在leader上合并成一个包
+ */
+@Slf4j
+public class IngestClient {
+
+    private final RpcClient rpcClient = new RpcClient();
+
+    private final String[] servers;
+
+    private final int timeoutMs;
+
+    private final int maxRetries;
+
+    private volatile String leader;
+
+    private int next;
+
+    private final String producerId = UUID.randomUUID().toString();
+
+    private final AtomicLong seq = new AtomicLong();
+
+    public IngestClient(String serverList, int timeoutMs, int maxRetries) {
+        this.servers = serverList.split(",");
+        this.timeoutMs = timeoutMs;
+        this.maxRetries = maxRetries;
+        this.leader = servers[0].trim();
+    }
+
+    public void start() {
+        rpcClient.startup();
+    }
+
+    public void shutdown() {
+        rpcClient.shutdown();
+    }
+
+    /**
+     * 同步发送一批字符串
+     *
+     * @return 这批字符串所在包的packNo
+     */
+    public long send(List<String> strs) throws InterruptedException {
+        //所有重试都发送同一个请求
+        IngestRequest request = new IngestRequest(strs, producerId, seq.incrementAndGet());
+        Exception lastError = null;
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            String address = leader;
+            try {
+                IngestResponse response = (IngestResponse) rpcClient.invokeSync(address, request, timeoutMs);
+                if (response.isSuccess()) {
+                    return response.getPackNo();
+                }
+                if (response.getLeader() != null) {
+                    leader = response.getLeader();
+                    continue;
+                }
+                lastError = new IllegalStateException(response.getError());
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                lastError = e;
+            }
+            //leader未知或者连接失败, 换下一个地址
+            leader = nextServer();
+            Thread.sleep(Math.min(100L << Math.min(attempt, 4), 1000));
+        }
+        throw new IllegalStateException("ingest failed after " + maxRetries + " retries", lastError);
+    }
+
+    private synchronized String nextServer() {
+        next = (next + 1) % servers.length;
+        return servers[next].trim();
+    }
+}
@@ -0,0 +1,49 @@
+package com.weilai.rheadkv;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多个生产者线程通过IngestClient向集群发送数据, 每秒打印一次吞吐
+ * 参数: [生产者线程数, 默认8] [每批字符串数, 默认10]
+ */
+@Slf4j
+public class IngestProducerStartup {
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        IngestClient client = new IngestClient("127.0.0.1:9991,127.0.0.1:9992,127.0.0.1:9993", 3000, 10);
+        client.start();
+        AtomicLong acked = new AtomicLong();
+        for (int i = 0; i < producers; i++) {
+            final int producerId = i;
+            new Thread(() -> {
+                long seq = 0;
+                while (true) {
+                    List<String> strs = new ArrayList<>(batchSize);
+                    for (int j = 0; j < batchSize; j++) {
+                        strs.add("producer-" + producerId + "-" + seq++);
+                    }
+                    try {
+                        client.send(strs);
+                        acked.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Exception e) {
+                        log.error("producer {} send error", producerId, e);
+                    }
+                }
+            }, "ingest-producer-" + i).start();
+        }
+        while (true) {
+            Thread.sleep(1000);
+            log.info("acked batches per second: {}", acked.getAndSet(0));
+        }
+    }
+}
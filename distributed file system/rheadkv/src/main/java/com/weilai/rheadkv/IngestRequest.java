@@ -0,0 +1,29 @@
+package com.weilai.rheadkv;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 生产者发送的一批字符串, 这批字符串会放进同一个包里
+ * producerId和seq唯一标识一批数据, 超时重发时保持不变, leader据此去重
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IngestRequest implements Serializable {
+    private List<String> strs;
+
+    /**
+     * 客户端实例的唯一标识, 为null时不去重
+     */
+    private String producerId;
+
+    /**
+     * 同一个producerId内递增的批次号
+     */
+    private long seq;
+}
@@ -0,0 +1,33 @@
+package com.weilai.rheadkv;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 1.success为true时packNo是这批字符串所在的包
+ * 2.请求发到了follower时success为false, leader是当前leader的接入地址(未知时为null), 生产者应该改发到leader
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IngestResponse implements Serializable {
+    private boolean success;
+    private long packNo;
+    private String leader;
+    private String error;
+
+    public static IngestResponse ok(long packNo) {
+        return new IngestResponse(true, packNo, null, null);
+    }
+
+    public static IngestResponse redirect(String leader) {
+        return new IngestResponse(false, -1, leader, "not leader");
+    }
+
+    public static IngestResponse error(String error) {
+        return new IngestResponse(false, -1, null, error);
+    }
+}
@@ -0,0 +1,114 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.AsyncContext;
+import com.alipay.remoting.BizContext;
+import com.alipay.remoting.rpc.RpcServer;
+import com.alipay.remoting.rpc.protocol.AsyncUserProcessor;
+import com.alipay.sofa.jraft.entity.PeerId;
+import com.alipay.sofa.jraft.rhea.RegionEngine;
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 数据接入服务, 生产者通过SOFA Bolt发送IngestRequest
+ * 1.leader把请求发布到排队机, 和其他生产者的数据一起打包提交, Raft提交成功后回复packNo
+ * 2.follower不处理请求, 回复leader的接入地址让生产者重定向
+ * 3.请求异步处理, Bolt的IO线程不会等待Raft提交
+ * 4.一个请求最多packBatchSize条, 超过的直接拒绝, 避免一个请求变成一个超大的包和Raft日志
+ * 接入地址列表ingest.serverlist和serverlist按相同顺序一一对应
+ */
+@Slf4j
+public class IngestServer {
+
+    private final NodeConfig nodeConfig;
+
+    private final String[] raftServers;
+
+    private final String[] ingestServers;
+
+    private final RpcServer rpcServer;
+
+    private final Counter requests;
+
+    private final Counter redirects;
+
+    public IngestServer(NodeConfig nodeConfig) {
+        this.nodeConfig = nodeConfig;
+        this.raftServers = nodeConfig.getServerList().split(",");
+        this.ingestServers = nodeConfig.getIngestServerList().split(",");
+        this.requests = nodeConfig.getMetrics().getRegistry().counter("rheadkv.ingest.requests");
+        this.redirects = nodeConfig.getMetrics().getRegistry().counter("rheadkv.ingest.redirects");
+        this.rpcServer = new RpcServer(nodeConfig.getIngestPort(), true);
+        this.rpcServer.registerUserProcessor(new IngestProcessor());
+    }
+
+    public void start() {
+        rpcServer.startup();
+        log.info("ingest server started at port {}", nodeConfig.getIngestPort());
+    }
+
+    public void shutdown() {
+        rpcServer.shutdown();
+    }
+
+    /**
+     * @return 排队机所在region的leader对应的接入地址, 还没选出leader时为null
+     */
+    private String leaderIngestAddress() {
+        RegionEngine regionEngine = ((DefaultRheaKVStore) nodeConfig.getNode().getRheaKVStore()).getStoreEngine()
+                .getRegionEngine(RegionLayout.SEQUENCER_REGION_ID);
+        PeerId leaderId = regionEngine == null ? null : regionEngine.getLeaderId();
+        if (leaderId == null || leaderId.isEmpty()) {
+            return null;
+        }
+        String leader = leaderId.getEndpoint().toString();
+        for (int i = 0; i < raftServers.length && i < ingestServers.length; i++) {
+            if (raftServers[i].trim().equals(leader)) {
+                return ingestServers[i].trim();
+            }
+        }
+        return null;
+    }
+
+    private class IngestProcessor extends AsyncUserProcessor<IngestRequest> {
+
+        @Override
+        public void handleRequest(BizContext bizCtx, AsyncContext asyncCtx, IngestRequest request) {
+            requests.increment();
+            if (request.getStrs() == null || request.getStrs().isEmpty()) {
+                asyncCtx.sendResponse(IngestResponse.error("empty request"));
+                return;
+            }
+            if (request.getStrs().size() > nodeConfig.getPackBatchSize()) {
+                asyncCtx.sendResponse(IngestResponse.error("too many strs: " + request.getStrs().size()
+                        + ", packbatchsize is " + nodeConfig.getPackBatchSize()));
+                return;
+            }
+            if (!nodeConfig.getNode().isLeader()) {
+                redirects.increment();
+                asyncCtx.sendResponse(IngestResponse.redirect(leaderIngestAddress()));
+                return;
+            }
+            CompletableFuture<Long> ack = new CompletableFuture<>();
+            ack.whenComplete((packNo, e) -> {
+                if (e == null) {
+                    asyncCtx.sendResponse(IngestResponse.ok(packNo));
+                } else if (!nodeConfig.getNode().isLeader()) {
+                    //提交过程中失去了leader
+                    asyncCtx.sendResponse(IngestResponse.redirect(leaderIngestAddress()));
+                } else {
+                    asyncCtx.sendResponse(IngestResponse.error(e.getMessage()));
+                }
+            });
+            nodeConfig.getSequencer().publish(request, ack);
+        }
+
+        @Override
+        public String interest() {
+            return IngestRequest.class.getName();
+        }
+    }
+}
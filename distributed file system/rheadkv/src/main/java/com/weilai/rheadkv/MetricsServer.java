@@ -0,0 +1,40 @@
+package com.weilai.rheadkv;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 用JDK自带的HttpServer提供Prometheus的抓取接口 http://host:port/metrics
+ */
+@Slf4j
+public class MetricsServer {
+
+    private final HttpServer server;
+
+    public MetricsServer(int port, PrometheusMeterRegistry registry) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        log.info("metrics server started at {}", server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,52 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
+import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
+import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 通过组播接收包的订阅者, 只在丢包时才读KVStore, 订阅者增多时集群的读压力不变
+ * 参数: [起始packNo, 默认-1即从收到的第一个包开始]
+ */
+@Slf4j
+public class MulticastReadStartup {
+    private static RheaKVStore rheaKVStore = new DefaultRheaKVStore();
+    //读取时按值里的版本字节选择解码器和解压方式
+    private static BodyCodec bodyCodec = new VersionedBodyCodec(CodecType.HESSIAN2, PayloadCompressor.none());
+    //启动时从集群读取regioncount
+    private static PackKeys packKeys;
+
+    public static void main(String[] args) throws InterruptedException {
+        long startPackNo = args.length > 0 ? Long.parseLong(args[0]) : -1;
+        String seqUrlList = "127.0.0.1:8891,127.0.0.1:8892,127.0.0.1:8893";
+        packKeys = ClusterMeta.loadPackKeys(seqUrlList);
+        final PlacementDriverOptions pdOptions = PlacementDriverOptionsConfigured.newConfigured()
+                .withFake(true)
+                .withRegionRouteTableOptionsList(RegionLayout.routeTableOptions(packKeys.getRegionCount(), seqUrlList))
+                .config();
+        final RheaKVStoreOptions options = RheaKVStoreOptionsConfigured.newConfigured()
+                .withPlacementDriverOptions(pdOptions)
+                .config();
+        rheaKVStore.init(options);
+
+        PackMulticastReceiver receiver = new PackMulticastReceiver(rheaKVStore, bodyCodec, packKeys, packs -> {
+            if (!packs.isEmpty()) {
+                log.info("received {} packs, last packNo = {}", packs.size(), packs.get(packs.size() - 1).getPackNo());
+            }
+        }, "239.0.0.1", 1234, startPackNo);
+        receiver.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                receiver.stop();
+                log.info("received {} datagrams, filled {} packs from store", receiver.getReceived(), receiver.getFilled());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Thread.currentThread().join();
+    }
+}
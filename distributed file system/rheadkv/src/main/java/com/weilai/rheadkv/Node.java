@@ -36,8 +36,8 @@ public class Node {
         //初始化KVStore
         rheaKVStore = new DefaultRheaKVStore();
         rheaKVStore.init(this.options);
-        //监听节点状态
-        rheaKVStore.addLeaderStateListener(-1, new LeaderStateListener() {
+        //监听节点状态, 排队机所在region的leader才是主节点
+        rheaKVStore.addLeaderStateListener(RegionLayout.SEQUENCER_REGION_ID, new LeaderStateListener() {
             @Override
             public void onLeaderStart(long newTerm) {
                 log.info("node become leader");
@@ -3,22 +3,42 @@ package com.weilai.rheadkv;
 import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
 import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
 import com.alipay.sofa.jraft.rhea.options.StoreEngineOptions;
+import com.alipay.sofa.jraft.option.NodeOptions;
+import com.alipay.sofa.jraft.option.ReadOnlyOption;
+import com.alipay.sofa.jraft.rhea.LeaderStateListener;
+import com.alipay.sofa.jraft.rhea.RegionEngine;
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
 import com.alipay.sofa.jraft.rhea.options.configured.MemoryDBOptionsConfigured;
 import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
 import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.RocksDBOptionsConfigured;
 import com.alipay.sofa.jraft.rhea.options.configured.StoreEngineOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.storage.RocksRawKVStore;
 import com.alipay.sofa.jraft.rhea.storage.StorageType;
 import com.alipay.sofa.jraft.util.Endpoint;
+import com.alipay.sofa.jraft.util.NamedThreadFactory;
+import com.alipay.sofa.jraft.util.StorageOptionsFactory;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.LRUCache;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Properties;
-import java.util.Timer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 对KVStore节点的配置类
@@ -30,6 +50,8 @@ import java.util.Timer;
 @RequiredArgsConstructor
 public class NodeConfig {
 
+    private static final AtomicBoolean ROCKSDB_OPTIONS_REGISTERED = new AtomicBoolean(false);
+
     /**
      * 存放数据/日志的本地路径
      */
@@ -45,12 +67,187 @@ public class NodeConfig {
      */
     private String serverList;
 
+    /**
+     * 包的key空间切分成多少个region(Raft组), 每个region有各自的leader, 写入并行提交
+     */
+    private int regionCount;
+
+    /**
+     * 同时在途(已提交给Raft但未完成)的写入批次上限
+     */
+    private int maxInFlight;
+
+    /**
+     * 一次从KVStore预留多少个packNo
+     */
+    private int packNoBlockSize;
+
+    /**
+     * 排队机RingBuffer的大小, 必须是2的幂
+     */
+    private int ringBufferSize;
+
+    /**
+     * 一个StrsPack最多打包多少条数据
+     */
+    private int packBatchSize;
+
+    /**
+     * 批次中第一条数据最多等待多久就打包(毫秒)
+     */
+    private long packFlushMs;
+
+    /**
+     * 状态机的存储引擎: Memory 全部数据在堆上, 重启时重放Raft日志重建; RocksDB 数据落盘
+     */
+    private StorageType storageType;
+
+    /**
+     * Raft快照间隔(秒), 快照之后的日志才需要在重启时重放
+     */
+    private int snapshotIntervalSecs;
+
+    /**
+     * ReadIndex的实现方式: ReadOnlySafe 每次读都和多数派确认一次; ReadOnlyLeaseBased leader在租约内直接返回
+     */
+    private ReadOnlyOption readOnlyOption;
+
+    /**
+     * RocksDB每次写入是否fsync, Raft日志已经保证了持久性, 一般不需要
+     */
+    private boolean rocksDbSync;
+
+    /**
+     * RocksDB读缓存大小(MB)
+     */
+    private long rocksDbBlockCacheMb;
+
+    /**
+     * RocksDB memtable大小(MB)
+     */
+    private long rocksDbWriteBufferMb;
+
+    /**
+     * RocksDB的压缩算法, 取值为org.rocksdb.CompressionType的名字, 例如 LZ4_COMPRESSION
+     */
+    private String rocksDbCompression;
+
     @NonNull
     private String fileName;
 
     private Node node;
 
-    private BodyCodec bodyCodec = new BodyCodec();
+    /**
+     * 写入时使用的编码方式, 读取时按值里的版本字节自动选择
+     */
+    private CodecType codecType;
+
+    /**
+     * 写入时对编码后的值使用的压缩方式, 读取时按版本字节自动选择
+     */
+    private CompressionType compression;
+
+    /**
+     * 小于这个长度的值不压缩
+     */
+    private int compressionMinBytes;
+
+    /**
+     * Zstd字典文件路径, 由CompressionDictTrainer生成, 为空时不使用字典
+     */
+    private String compressionDictPath;
+
+    private VersionedBodyCodec bodyCodec;
+
+    private PackKeys packKeys;
+
+    private PackWriter packWriter;
+
+    private PackSequencer sequencer;
+
+    /**
+     * Prometheus抓取端口, 0表示不启动
+     */
+    private int metricsPort;
+
+    /**
+     * 刷新订阅者落后包数的间隔
+     */
+    private long readerLagRefreshSecs;
+
+    /**
+     * 订阅者超过这个时间(秒)没有保存游标(心跳)就视为已停用, 不再计入落后包数、抓取限流和清理的保留线, 0表示都计入
+     */
+    private long readerTtlSecs;
+
+    /**
+     * 数据接入服务的端口, 0表示不启动
+     */
+    private int ingestPort;
+
+    /**
+     * 所有节点的接入地址, 和serverList按相同顺序对应, 用于把生产者重定向到leader
+     */
+    private String ingestServerList;
+
+    /**
+     * 提交成功的包组播到这个组, 为空时不组播
+     */
+    private String multicastGroup;
+
+    private int multicastPort;
+
+    /**
+     * 每个报文的最大字节数, 不超过MTU才不会在IP层分片; 更大的包拆成多个报文
+     */
+    private int multicastMaxDatagramBytes;
+
+    /**
+     * 是否启动FetchTask往排队机里发测试数据, 默认只在没有开启数据接入(ingest.port为0)时启动,
+     * 否则测试数据会混进生产者发来的真实数据里
+     */
+    private boolean fetchEnabled;
+
+    /**
+     * 负载为0时的抓取间隔
+     */
+    private long fetchMinIntervalMs;
+
+    /**
+     * 负载满或暂停时的抓取间隔
+     */
+    private long fetchMaxIntervalMs;
+
+    /**
+     * 在途批次达到这个数量时暂停抓取
+     */
+    private int fetchPauseInFlight;
+
+    /**
+     * 订阅者落后达到这个包数时暂停抓取, 0表示不考虑订阅者
+     */
+    private long fetchMaxReaderLag;
+
+    /**
+     * 只保留最近多少个包, 0表示不按数量清理
+     */
+    private long retentionMaxPacks;
+
+    /**
+     * 包保留多久(秒), 0表示不按时间清理
+     */
+    private long retentionMaxAgeSecs;
+
+    private long retentionIntervalSecs;
+
+    /**
+     * 删除前把包归档到这个目录下的段文件, 为空时不归档
+     */
+    private String retentionArchiveDir;
+
+    private PrometheusMeterRegistry meterRegistry;
+
+    private PackMetrics metrics;
 
     /**
      * 从配置文件中读取属性并赋值给此对象
@@ -66,6 +263,18 @@ public class NodeConfig {
         //初始化集群(Raft算法的排队机集群)
         startSeqDbCluster();
 
+        //启动排队机
+        startupSequencer();
+
+        //启动数据接入服务
+        startupIngest();
+
+        //启动监控
+        startupMetrics();
+
+        //清理旧的包
+        startupRetention();
+
         startupFetch();
     }
 
@@ -73,36 +282,111 @@ public class NodeConfig {
         InputStream inputStream = ClassLoader.getSystemClassLoader().getResourceAsStream(fileName);
         Properties properties = new Properties();
         properties.load(inputStream);
+        initConfig(properties);
+    }
+
+    void initConfig(Properties properties) throws IOException {
         this.dataPath = properties.getProperty("datapath");
         this.serveUrl = properties.getProperty("serveurl");
         this.serverList = properties.getProperty("serverlist");
+        this.codecType = CodecType.valueOf(properties.getProperty("codec", CodecType.HESSIAN2.name()));
+        this.compression = CompressionType.valueOf(properties.getProperty("compression", CompressionType.NONE.name()));
+        this.compressionMinBytes = Integer.parseInt(properties.getProperty("compression.minbytes", "256"));
+        this.compressionDictPath = properties.getProperty("compression.zstd.dict", "");
+        byte[] dictionary = compressionDictPath.isEmpty() ? null : Files.readAllBytes(Paths.get(compressionDictPath));
+        this.bodyCodec = new VersionedBodyCodec(codecType, new PayloadCompressor(compression, compressionMinBytes, dictionary));
+        this.regionCount = Integer.parseInt(properties.getProperty("regioncount", "1"));
+        this.packKeys = new PackKeys(regionCount);
+        this.maxInFlight = Integer.parseInt(properties.getProperty("maxinflight", "64"));
+        this.packNoBlockSize = Integer.parseInt(properties.getProperty("packnoblocksize", "1000"));
+        this.ringBufferSize = Integer.parseInt(properties.getProperty("ringbuffersize", "1024"));
+        this.packBatchSize = Integer.parseInt(properties.getProperty("packbatchsize", "100"));
+        this.packFlushMs = Long.parseLong(properties.getProperty("packflushms", "10"));
+        this.storageType = StorageType.valueOf(properties.getProperty("storagetype", StorageType.Memory.name()));
+        this.snapshotIntervalSecs = Integer.parseInt(properties.getProperty("snapshotintervalsecs", "3600"));
+        this.readOnlyOption = ReadOnlyOption.valueOf(properties.getProperty("readonlyoption", ReadOnlyOption.ReadOnlySafe.name()));
+        this.rocksDbSync = Boolean.parseBoolean(properties.getProperty("rocksdb.sync", "false"));
+        this.rocksDbBlockCacheMb = Long.parseLong(properties.getProperty("rocksdb.blockcachemb", "64"));
+        this.rocksDbWriteBufferMb = Long.parseLong(properties.getProperty("rocksdb.writebuffermb", "64"));
+        this.rocksDbCompression = properties.getProperty("rocksdb.compression", org.rocksdb.CompressionType.LZ4_COMPRESSION.name());
+        this.metricsPort = Integer.parseInt(properties.getProperty("metrics.port", "0"));
+        this.readerLagRefreshSecs = Long.parseLong(properties.getProperty("metrics.readerlagrefreshsecs", "5"));
+        this.readerTtlSecs = Long.parseLong(properties.getProperty("reader.ttlsecs", "300"));
+        this.ingestPort = Integer.parseInt(properties.getProperty("ingest.port", "0"));
+        this.ingestServerList = properties.getProperty("ingest.serverlist", "");
+        this.multicastGroup = properties.getProperty("multicast.group", "");
+        this.multicastPort = Integer.parseInt(properties.getProperty("multicast.port", "1234"));
+        this.multicastMaxDatagramBytes = Integer.parseInt(properties.getProperty("multicast.maxdatagrambytes", "1400"));
+        this.fetchEnabled = Boolean.parseBoolean(properties.getProperty("fetch.enabled", String.valueOf(ingestPort <= 0)));
+        this.fetchMinIntervalMs = Long.parseLong(properties.getProperty("fetch.minintervalms", "10"));
+        this.fetchMaxIntervalMs = Long.parseLong(properties.getProperty("fetch.maxintervalms", "1000"));
+        this.fetchPauseInFlight = Integer.parseInt(properties.getProperty("fetch.pauseinflight", String.valueOf(maxInFlight * 3 / 4)));
+        this.fetchMaxReaderLag = Long.parseLong(properties.getProperty("fetch.maxreaderlag", "0"));
+        this.retentionMaxPacks = Long.parseLong(properties.getProperty("retention.maxpacks", "0"));
+        this.retentionMaxAgeSecs = Long.parseLong(properties.getProperty("retention.maxagesecs", "0"));
+        this.retentionIntervalSecs = Long.parseLong(properties.getProperty("retention.intervalsecs", "60"));
+        this.retentionArchiveDir = properties.getProperty("retention.archivedir", "");
+        this.meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        this.metrics = new PackMetrics(meterRegistry);
+        metrics.bindCompressor(bodyCodec.getCompressor());
         System.out.println(this.dataPath);
         System.out.println(this.serveUrl);
         System.out.println(this.serverList);
         log.info("datapath is: {}", this.dataPath);
         log.info("serverurl is: {}", this.serveUrl);
         log.info("serverlist is: {}", this.serverList);
+        log.info("codec is: {}, regioncount is: {}, maxinflight is: {}", this.codecType, this.regionCount, this.maxInFlight);
+        log.info("compression is: {}, compression.minbytes is: {}, compression.zstd.dict is: {}",
+                this.compression, this.compressionMinBytes, this.compressionDictPath);
+        log.info("packnoblocksize is: {}, ringbuffersize is: {}, packbatchsize is: {}, packflushms is: {}",
+                this.packNoBlockSize, this.ringBufferSize, this.packBatchSize, this.packFlushMs);
+        log.info("storagetype is: {}, snapshotintervalsecs is: {}, readonlyoption is: {}",
+                this.storageType, this.snapshotIntervalSecs, this.readOnlyOption);
+        log.info("metrics.port is: {}, metrics.readerlagrefreshsecs is: {}, reader.ttlsecs is: {}",
+                this.metricsPort, this.readerLagRefreshSecs, this.readerTtlSecs);
+        log.info("ingest.port is: {}, ingest.serverlist is: {}", this.ingestPort, this.ingestServerList);
+        log.info("multicast.group is: {}, multicast.port is: {}, multicast.maxdatagrambytes is: {}",
+                this.multicastGroup, this.multicastPort, this.multicastMaxDatagramBytes);
+        log.info("fetch.enabled is: {}, fetch.minintervalms is: {}, fetch.maxintervalms is: {}, fetch.pauseinflight is: {}, fetch.maxreaderlag is: {}",
+                this.fetchEnabled, this.fetchMinIntervalMs, this.fetchMaxIntervalMs, this.fetchPauseInFlight, this.fetchMaxReaderLag);
+        log.info("retention.maxpacks is: {}, retention.maxagesecs is: {}, retention.intervalsecs is: {}, retention.archivedir is: {}",
+                this.retentionMaxPacks, this.retentionMaxAgeSecs, this.retentionIntervalSecs, this.retentionArchiveDir);
     }
 
     /**
      * 启动KVStore
      */
-    private void startSeqDbCluster() {
+    void startSeqDbCluster() {
         String[] split = serveUrl.split(":");
         String ip = split[0];
         int port = Integer.parseInt(split[1]);
 
+        final NodeOptions nodeOptions = new NodeOptions();
+        nodeOptions.setSnapshotIntervalSecs(snapshotIntervalSecs);
+        nodeOptions.getRaftOptions().setReadOnlyOptions(readOnlyOption);
+
         //对KV数据库存储引擎进行相关设置
-        final StoreEngineOptions storeEngineOptions = StoreEngineOptionsConfigured.newConfigured()
-                .withStorageType(StorageType.Memory)    //使用memory来存储Raft的数据
-                .withMemoryDBOptions(MemoryDBOptionsConfigured.newConfigured().config())
+        final StoreEngineOptionsConfigured storeEngineConfigured = StoreEngineOptionsConfigured.newConfigured()
+                .withStorageType(storageType)
                 .withRaftDataPath(dataPath)
                 .withServerAddress(new Endpoint(ip, port))
-                .config();
+                .withCommonNodeOptions(nodeOptions)
+                .withRegionEngineOptionsList(RegionLayout.regionEngineOptions(regionCount));
+        if (storageType == StorageType.RocksDB) {
+            registerRocksDBOptions();
+            storeEngineConfigured.withRocksDBOptions(RocksDBOptionsConfigured.newConfigured()
+                    .withDbPath(Paths.get(dataPath, "db").toString())
+                    .withSync(rocksDbSync)
+                    .config());
+        } else {
+            storeEngineConfigured.withMemoryDBOptions(MemoryDBOptionsConfigured.newConfigured().config());
+        }
+        final StoreEngineOptions storeEngineOptions = storeEngineConfigured.config();
 
-        //针对集群中多个store的配置，实际中只有一个集群，所以指定了Fake
+        //针对集群中多个store的配置，实际中只有一个集群，所以指定了Fake, region按PackKeys的分片静态切分
         final PlacementDriverOptions placementDriverOptions = PlacementDriverOptionsConfigured.newConfigured()
                 .withFake(true)
+                .withRegionRouteTableOptionsList(RegionLayout.routeTableOptions(regionCount, serverList))
                 .config();
 
         //将以上配置配置到KV储存选项中
@@ -114,8 +398,152 @@ public class NodeConfig {
 
         node = new Node(rheaKVStoreOptions);
         node.start();
+        metrics.bindNode(node);
+        balanceRegionLeaders();
+        packWriter = new PackWriter(node.getRheaKVStore(), bodyCodec, packKeys, maxInFlight, metrics);
+        if (!multicastGroup.isEmpty()) {
+            PackMulticaster multicaster = new PackMulticaster(node, multicastGroup, multicastPort, multicastMaxDatagramBytes, metrics);
+            packWriter.setMulticaster(multicaster);
+            Runtime.getRuntime().addShutdownHook(new Thread(multicaster::close));
+        }
         //将节点的stop方法挂载在jdk的shutdown流程中
-        Runtime.getRuntime().addShutdownHook(new Thread(node::stop));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("{}", bodyCodec.getCompressor());
+            node.stop();
+        }));
+    }
+
+    /**
+     * Fake模式下没有PD做leader均衡, 选举结果可能让所有region的leader都落在同一个节点上
+     * 分片shard的leader优先放在serverList里第 shard % 节点数 个节点, 本节点当选但不是首选节点时把leadership转过去
+     * 1.首选节点不在当前配置里时不转, 转过去也选不上
+     * 2.首选节点不在存活列表里(宕机或还没连上)时先不转, 每秒检查一次, 它恢复后再转; 本节点不再是这一任的leader时停止
+     * 排队机所在的region不参与, 避免排队机来回切换
+     */
+    private void balanceRegionLeaders() {
+        final String[] servers = serverList.split(",");
+        final Endpoint self = new Endpoint(serveUrl.split(":")[0], Integer.parseInt(serveUrl.split(":")[1]));
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("leader-balance-", true));
+        for (int shard = 0; shard < regionCount; shard++) {
+            final long regionId = RegionLayout.regionIdOf(shard);
+            if (regionId == RegionLayout.SEQUENCER_REGION_ID) {
+                continue;
+            }
+            String[] preferred = servers[shard % servers.length].trim().split(":");
+            final Endpoint preferredEndpoint = new Endpoint(preferred[0], Integer.parseInt(preferred[1]));
+            if (preferredEndpoint.equals(self)) {
+                continue;
+            }
+            //最近一次当选的任期, 用来停掉上一任留下的检查
+            final AtomicLong leaderTerm = new AtomicLong(-1);
+            node.getRheaKVStore().addLeaderStateListener(regionId, new LeaderStateListener() {
+                @Override
+                public void onLeaderStart(long newTerm) {
+                    leaderTerm.set(newTerm);
+                    //刚当选时复制线程还没和follower通信过, 存活列表不准, 稍后再检查
+                    scheduler.schedule(() -> transferLeader(scheduler, regionId, preferredEndpoint, leaderTerm, newTerm),
+                            1, TimeUnit.SECONDS);
+                }
+
+                @Override
+                public void onLeaderStop(long oldTerm) {
+                    leaderTerm.compareAndSet(oldTerm, -1);
+                }
+            });
+        }
+    }
+
+    private void transferLeader(ScheduledExecutorService scheduler, long regionId, Endpoint preferredEndpoint,
+                                AtomicLong leaderTerm, long term) {
+        RegionEngine regionEngine = ((DefaultRheaKVStore) node.getRheaKVStore()).getStoreEngine()
+                .getRegionEngine(regionId);
+        if (regionEngine == null || leaderTerm.get() != term || !regionEngine.isLeader()) {
+            return;
+        }
+        com.alipay.sofa.jraft.Node raftNode = regionEngine.getNode();
+        if (raftNode.listPeers().stream().noneMatch(peer -> peer.getEndpoint().equals(preferredEndpoint))) {
+            log.warn("region {} preferred leader {} is not in configuration {}, keep leadership",
+                    regionId, preferredEndpoint, raftNode.listPeers());
+            return;
+        }
+        if (raftNode.listAlivePeers().stream().noneMatch(peer -> peer.getEndpoint().equals(preferredEndpoint))) {
+            scheduler.schedule(() -> transferLeader(scheduler, regionId, preferredEndpoint, leaderTerm, term),
+                    1, TimeUnit.SECONDS);
+            return;
+        }
+        boolean transferred = regionEngine.transferLeadershipTo(preferredEndpoint);
+        log.info("region {} transfer leader to {}: {}", regionId, preferredEndpoint, transferred);
+    }
+
+    /**
+     * RocksRawKVStore打开数据库时从StorageOptionsFactory按类名取配置, 所以要在启动KVStore之前注册
+     * 在jraft的默认配置上修改, 保留其余的默认调优
+     * 同一个类只能注册一次, 同一个JVM里的多个节点共用第一次注册的配置
+     */
+    private void registerRocksDBOptions() {
+        if (!ROCKSDB_OPTIONS_REGISTERED.compareAndSet(false, true)) {
+            return;
+        }
+        final BlockBasedTableConfig tableConfig = StorageOptionsFactory.getDefaultRocksDBTableConfig()
+                .setBlockCache(new LRUCache(rocksDbBlockCacheMb * 1024 * 1024));
+        StorageOptionsFactory.registerRocksDBTableFormatConfig(RocksRawKVStore.class, tableConfig);
+
+        final ColumnFamilyOptions columnFamilyOptions = StorageOptionsFactory.getDefaultRocksDBColumnFamilyOptions()
+                .setWriteBufferSize(rocksDbWriteBufferMb * 1024 * 1024)
+                .setCompressionType(org.rocksdb.CompressionType.valueOf(rocksDbCompression));
+        StorageOptionsFactory.registerRocksDBColumnFamilyOptions(RocksRawKVStore.class, columnFamilyOptions);
+    }
+
+    /**
+     * 启动排队机, 网关抓到的数据先进RingBuffer, 再由单线程打包写入Raft
+     */
+    void startupSequencer() {
+        sequencer = new PackSequencer(this);
+        sequencer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(sequencer::shutdown));
+    }
+
+    private void startupIngest() {
+        if (ingestPort <= 0) {
+            return;
+        }
+        IngestServer ingestServer = new IngestServer(this);
+        ingestServer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ingestServer::shutdown));
+    }
+
+    /**
+     * 启动Prometheus抓取接口, 并定期刷新订阅者落后的包数
+     */
+    private void startupMetrics() throws IOException {
+        if (metricsPort > 0) {
+            MetricsServer metricsServer = new MetricsServer(metricsPort, meterRegistry);
+            metricsServer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::stop));
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("reader-lag-", true));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                metrics.refreshReaderLag(node.getRheaKVStore(), packKeys, readerTtlSecs * 1000);
+            } catch (Exception e) {
+                metrics.failures("lag").increment();
+                log.warn("[NodeConfig] refresh reader lag error: {}", e.getMessage());
+            }
+        }, readerLagRefreshSecs, readerLagRefreshSecs, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 定期按数量/时间清理旧的包, 都没有配置时不启动
+     */
+    private void startupRetention() {
+        if (retentionMaxPacks <= 0 && retentionMaxAgeSecs <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("pack-retention-", true));
+        scheduler.scheduleWithFixedDelay(new PackRetention(this), retentionIntervalSecs, retentionIntervalSecs, TimeUnit.SECONDS);
     }
 
     /**
@@ -125,11 +553,15 @@ public class NodeConfig {
      * 2.通信方式
      */
     private void startupFetch() {
+        if (!fetchEnabled) {
+            return;
+        }
         /*
-          使用jdk的Timer进行从网关定时抓取数据的任务
-          参数分别为要执行的线程，延迟执行的时间，执行的频率
+          按在途批次和订阅者落后程度调整抓取间隔, 积压时暂停抓取
          */
-        new Timer().schedule(new FetchTask(this), 1000, 1000);
+        FetchScheduler fetchScheduler = new FetchScheduler(this, new FetchTask(this));
+        fetchScheduler.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(fetchScheduler::shutdown));
     }
 
 
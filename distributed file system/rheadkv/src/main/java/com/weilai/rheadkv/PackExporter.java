@@ -0,0 +1,61 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
+import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
+import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Paths;
+
+/**
+ * 把集群里的包导出到本地文件, 给新的订阅者快速追赶用, 见 PackSubscriber.start(Path)
+ * 导出的范围是 [from, 各分片都已写到的最小位置), 确定范围后先等待settleMs再导出:
+ * 这时范围内还没出现的包(写入失败、换leader作废, 或者在途超过订阅者的gapTimeoutMs)订阅者本来也会跳过,
+ * 所以文件在 [from, to) 内是完整的, 订阅者回放时跳过文件里没有的号, 从to开始订阅
+ * 参数: 输出路径 [from, 默认为清理线] [settleMs, 默认5000, 不小于订阅者的gapTimeoutMs], from在清理线之前时从清理线开始
+ */
+@Slf4j
+public class PackExporter {
+
+    private static final String SERVER_LIST = "127.0.0.1:8891,127.0.0.1:8892,127.0.0.1:8893";
+
+    //启动时从集群读取regioncount
+    private static PackKeys packKeys;
+
+    public static void main(String[] args) throws Exception {
+        String output = args.length > 0 ? args[0] : "packs.snapshot";
+        long requestedFrom = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        long settleMs = args.length > 2 ? Long.parseLong(args[2]) : 5000;
+
+        packKeys = ClusterMeta.loadPackKeys(SERVER_LIST);
+        RheaKVStore rheaKVStore = new DefaultRheaKVStore();
+        final PlacementDriverOptions pdOptions = PlacementDriverOptionsConfigured.newConfigured()
+                .withFake(true)
+                .withRegionRouteTableOptionsList(RegionLayout.routeTableOptions(packKeys.getRegionCount(), SERVER_LIST))
+                .config();
+        final RheaKVStoreOptions options = RheaKVStoreOptionsConfigured.newConfigured()
+                .withPlacementDriverOptions(pdOptions)
+                .config();
+        rheaKVStore.init(options);
+        try {
+            //清理线之前的包已经删除, 从0开始导出会得到一个空文件
+            long floor = PackRetention.loadFloor(rheaKVStore);
+            long from = Math.max(requestedFrom, floor);
+            if (requestedFrom > 0 && requestedFrom < floor) {
+                log.warn("packs before {} were deleted by retention, export from {}", floor, floor);
+            }
+            long to = PackNoAllocator.getMinShardPackNo(rheaKVStore, packKeys);
+            //等范围内在途的包落地
+            Thread.sleep(settleMs);
+            long start = System.nanoTime();
+            long count = PackFile.export(rheaKVStore, packKeys, from, to, Paths.get(output));
+            log.info("exported {} packs in [{}, {}) to {} in {} ms", count, from, to, output,
+                    (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            rheaKVStore.shutdown();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaIterator;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 包的本地文件, 用于导出快照和归档
+ * 格式: [magic int][from long][to long] 之后按packNo升序 [packNo long][len int][value]...
+ * value是存储里的原始字节(带版本字节), 用VersionedBodyCodec解码; [from, to)里写入失败的packNo不会出现在文件里
+ */
+public class PackFile {
+
+    private static final int MAGIC = 0x504B4631;
+
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    /**
+     * 把 [from, to) 范围内的包按packNo顺序写到文件里
+     * 各分片的key在各自的region里有序, 每次取各分片当前packNo最小的一个, 合并后即为全局顺序
+     *
+     * @return 写入的包数量
+     */
+    public static long export(RheaKVStore rheaKVStore, PackKeys packKeys, long from, long to, Path path) throws IOException {
+        int regionCount = packKeys.getRegionCount();
+        RheaIterator<KVEntry>[] iterators = newIterators(rheaKVStore, packKeys, from, to);
+        KVEntry[] heads = new KVEntry[regionCount];
+        long count = 0;
+        try (Writer writer = new Writer(path, from, to)) {
+            while (true) {
+                KVEntry min = null;
+                int minShard = -1;
+                for (int shard = 0; shard < regionCount; shard++) {
+                    if (heads[shard] == null && iterators[shard].hasNext()) {
+                        heads[shard] = iterators[shard].next();
+                    }
+                    if (heads[shard] != null && (min == null
+                            || PackKeys.packNoOf(heads[shard].getKey()) < PackKeys.packNoOf(min.getKey()))) {
+                        min = heads[shard];
+                        minShard = shard;
+                    }
+                }
+                if (min == null) {
+                    return count;
+                }
+                heads[minShard] = null;
+                writer.append(PackKeys.packNoOf(min.getKey()), min.getValue());
+                count++;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RheaIterator<KVEntry>[] newIterators(RheaKVStore rheaKVStore, PackKeys packKeys, long from, long to) {
+        RheaIterator<KVEntry>[] iterators = new RheaIterator[packKeys.getRegionCount()];
+        for (int shard = 0; shard < iterators.length; shard++) {
+            iterators[shard] = rheaKVStore.iterator(packKeys.packKey(shard, from), packKeys.packKey(shard, to), 1000);
+        }
+        return iterators;
+    }
+
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        public Writer(Path path, long from, long to) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile()), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeLong(from);
+            out.writeLong(to);
+        }
+
+        public void append(long packNo, byte[] value) throws IOException {
+            out.writeLong(packNo);
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * 用内存映射读取包文件, 由操作系统按页加载, 不需要逐个key走RPC
+     * 单个映射最大2GB, 更大的范围需要分成多个文件导出
+     */
+    public static class Reader implements Closeable {
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        @Getter
+        private final long from;
+
+        @Getter
+        private final long to;
+
+        public Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException("pack file larger than 2GB: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                channel.close();
+                throw new IOException("not a pack file: " + path);
+            }
+            from = buffer.getLong();
+            to = buffer.getLong();
+        }
+
+        public boolean hasNext() {
+            return buffer.hasRemaining();
+        }
+
+        /**
+         * 读取下一个包的packNo, 之后必须调用nextValue读取它的值
+         */
+        public long nextPackNo() {
+            return buffer.getLong();
+        }
+
+        public byte[] nextValue() {
+            byte[] value = new byte[buffer.getInt()];
+            buffer.get(value);
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaIterator;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import com.alipay.sofa.jraft.rhea.util.ByteArray;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.ArrayUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订阅者在缺号上的等待和跳过规则, PackSubscriber和AsyncPackReader共用
+ * 1.游标处缺号时要知道缺号后面第一个现存的包: 扫到的页里有就直接用; 整页为空时用probe向后探测,
+ *   每个分片取 [from, 已提交水位) 里的第一个key, 缺号段比一页还长(例如换leader作废的号段大于pageSize)时也能找到
+ * 2.缺号持续gapTimeoutMs仍没补上就跳到后面第一个现存的包; 水位之前一个包都没有时跳到水位
+ * 3.后面没有任何包说明已经追上, 不算缺号
+ * 4.游标在清理线(PackRetention删除到的位置)之前时直接跳到清理线, 被删除的包不会再出现, 不用等待
+ * 不是线程安全的, 只在订阅者自己的线程里使用
+ */
+@Slf4j
+class PackGaps {
+
+    private final RheaKVStore rheaKVStore;
+
+    private final PackKeys packKeys;
+
+    private final String name;
+
+    private final long gapTimeoutNanos;
+
+    /**
+     * 当前缺号开始等待的时间, 0表示没有缺号
+     */
+    private long gapSinceNanos;
+
+    /**
+     * 最近一次probe读到的清理线
+     */
+    private long floor;
+
+    PackGaps(RheaKVStore rheaKVStore, PackKeys packKeys, String name, long gapTimeoutMs) {
+        this.rheaKVStore = rheaKVStore;
+        this.packKeys = packKeys;
+        this.name = name;
+        this.gapTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(gapTimeoutMs);
+    }
+
+    /**
+     * 找 from 之后第一个现存的包, from一般是已经扫过的空页的结束位置
+     *
+     * @return 第一个现存的packNo; [from, 水位)里没有包但水位在from之后时返回水位; 已经追上时返回-1
+     */
+    long probe(long from) {
+        //分片的PacketNo和清理线一次multiGet读出
+        List<byte[]> keys = Lists.newArrayList(packKeys.packNoKeys());
+        keys.add(PackKeys.retentionFloorKey());
+        Map<ByteArray, byte[]> values = rheaKVStore.bMultiGet(keys);
+        long committed = 0;
+        for (int shard = 0; shard < packKeys.getRegionCount(); shard++) {
+            byte[] value = values.get(ByteArray.wrap(packKeys.packNoKey(shard)));
+            if (ArrayUtils.isNotEmpty(value)) {
+                committed = Math.max(committed, PackKeys.bytesToLong(value));
+            }
+        }
+        byte[] floorValue = values.get(ByteArray.wrap(PackKeys.retentionFloorKey()));
+        floor = ArrayUtils.isNotEmpty(floorValue) ? PackKeys.bytesToLong(floorValue) : 0;
+        if (committed <= from) {
+            return -1;
+        }
+        long first = committed;
+        for (int shard = 0; shard < packKeys.getRegionCount(); shard++) {
+            RheaIterator<KVEntry> iterator = rheaKVStore.iterator(packKeys.packKey(shard, from),
+                    packKeys.packKey(shard, committed), 1);
+            if (iterator.hasNext()) {
+                first = Math.min(first, PackKeys.packNoOf(iterator.next().getKey()));
+            }
+        }
+        return first;
+    }
+
+    /**
+     * 游标处缺号, [cursor, next) 都不存在
+     *
+     * @return 等待超时后返回next, 否则返回cursor继续等待
+     */
+    long onGap(long cursor, long next) {
+        if (cursor < floor) {
+            log.warn("[PackGaps] {} packs [{}, {}) were deleted by retention, skip", name, cursor, floor);
+            gapSinceNanos = 0;
+            return floor;
+        }
+        if (gapSinceNanos == 0) {
+            gapSinceNanos = System.nanoTime();
+            return cursor;
+        }
+        if (System.nanoTime() - gapSinceNanos <= gapTimeoutNanos) {
+            return cursor;
+        }
+        log.warn("[PackGaps] {} skip missing packs [{}, {})", name, cursor, next);
+        gapSinceNanos = 0;
+        return next;
+    }
+
+    /**
+     * 游标前进了或者已经追上, 结束当前缺号的计时
+     */
+    void reset() {
+        gapSinceNanos = 0;
+    }
+}
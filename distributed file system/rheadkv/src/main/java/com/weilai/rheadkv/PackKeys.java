@@ -0,0 +1,127 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.util.Bits;
+import com.alipay.sofa.jraft.util.BytesUtil;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * KVStore中key的编码规则
+ * 包按 packNo % regionCount 分片, 每个分片对应一个region(一个Raft组):
+ * 1.包的key为 [分片号 1字节][packNo 8字节大端], 同一分片内key的字节序与packNo的大小顺序一致, 可以直接做范围扫描
+ * 2.每个分片有自己的PacketNo key [分片号 1字节]["seq_pqcket_no"], 和包在同一个region里, 才能和包一起原子提交
+ * 3.号段上限key [0]["seq_pack_no_limit"]、清理线key [0]["retention_floor"]和集群配置key [0]["cluster_..."]
+ *   放在排队机所在的第一个region里
+ * 4.其它全局key(例如reader_cursor/)首字节大于分片号, 落在最后一个region里
+ */
+public final class PackKeys {
+
+    /**
+     * 分片号必须小于全局key的首字节('r' = 0x72), 否则会和全局key混在一起
+     */
+    public static final int MAX_REGION_COUNT = 64;
+
+    private static final byte[] PACKET_NO_SUFFIX = BytesUtil.writeUtf8("seq_pqcket_no");
+
+    private static final byte[] PACKET_NO_LIMIT_SUFFIX = BytesUtil.writeUtf8("seq_pack_no_limit");
+
+    private static final byte[] RETENTION_FLOOR_SUFFIX = BytesUtil.writeUtf8("retention_floor");
+
+    private static final byte[] REGION_COUNT_SUFFIX = BytesUtil.writeUtf8("cluster_region_count");
+
+    private static final byte[] READ_ONLY_OPTION_SUFFIX = BytesUtil.writeUtf8("cluster_read_only_option");
+
+    private final int regionCount;
+
+    public PackKeys(int regionCount) {
+        if (regionCount < 1 || regionCount > MAX_REGION_COUNT) {
+            throw new IllegalArgumentException("regionCount must be in [1, " + MAX_REGION_COUNT + "]: " + regionCount);
+        }
+        this.regionCount = regionCount;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    public int shardOf(long packNo) {
+        return (int) (packNo % regionCount);
+    }
+
+    public byte[] packKey(long packNo) {
+        return packKey(shardOf(packNo), packNo);
+    }
+
+    /**
+     * 分片内的key, 用来拼扫描范围的边界
+     */
+    public byte[] packKey(int shard, long packNo) {
+        byte[] key = new byte[9];
+        key[0] = (byte) shard;
+        Bits.putLong(key, 1, packNo);
+        return key;
+    }
+
+    public static long packNoOf(byte[] key) {
+        return Bits.getLong(key, 1);
+    }
+
+    public byte[] packNoKey(int shard) {
+        return shardKey(shard, PACKET_NO_SUFFIX);
+    }
+
+    public byte[] packNoLimitKey() {
+        return shardKey(0, PACKET_NO_LIMIT_SUFFIX);
+    }
+
+    /**
+     * 比它小的包都已被PackRetention删除, 和region数无关
+     */
+    public static byte[] retentionFloorKey() {
+        return shardKey(0, RETENTION_FLOOR_SUFFIX);
+    }
+
+    /**
+     * 和region数无关, 见ClusterMeta
+     */
+    public static byte[] regionCountKey() {
+        return shardKey(0, REGION_COUNT_SUFFIX);
+    }
+
+    public static byte[] readOnlyOptionKey() {
+        return shardKey(0, READ_ONLY_OPTION_SUFFIX);
+    }
+
+    private static byte[] shardKey(int shard, byte[] suffix) {
+        byte[] key = new byte[1 + suffix.length];
+        key[0] = (byte) shard;
+        System.arraycopy(suffix, 0, key, 1, suffix.length);
+        return key;
+    }
+
+    public List<byte[]> packNoKeys() {
+        List<byte[]> keys = Lists.newArrayListWithCapacity(regionCount);
+        for (int shard = 0; shard < regionCount; shard++) {
+            keys.add(packNoKey(shard));
+        }
+        return keys;
+    }
+
+    /**
+     * 分片(region)的起始key, 包含该分片所有的key
+     */
+    public static byte[] shardStartKey(int shard) {
+        return new byte[]{(byte) shard};
+    }
+
+    public static byte[] longToBytes(long value) {
+        byte[] bytes = new byte[8];
+        Bits.putLong(bytes, 0, value);
+        return bytes;
+    }
+
+    public static long bytesToLong(byte[] bytes) {
+        return Bits.getLong(bytes, 0);
+    }
+}
@@ -0,0 +1,14 @@
+package com.weilai.rheadkv;
+
+import java.util.List;
+
+/**
+ * PackSubscriber的回调, 按packNo从小到大、不重复地收到已解码的包
+ */
+public interface PackListener {
+
+    /**
+     * 抛出异常时这一批不会提交游标, 稍后会重新投递
+     */
+    void onPacks(List<StrsPack> packs) throws Exception;
+}
@@ -0,0 +1,171 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 排队机流水线的监控指标
+ * 1.耗时: fetch(抓取), serialize(编码), commit(Raft提交), read(订阅者扫描)
+ * 2.当前状态: 最近提交的packNo, leader任期, 在途批次, 每个订阅者落后的包数
+ * 3.各环节的失败次数, 按stage区分
+ * 热路径上不再逐条打日志, 用这里的指标观察
+ */
+public class PackMetrics {
+
+    private static final String PREFIX = "rheadkv.";
+
+    @Getter
+    private final MeterRegistry registry;
+
+    @Getter
+    private final Timer fetchTimer;
+
+    @Getter
+    private final Timer serializeTimer;
+
+    @Getter
+    private final Timer commitTimer;
+
+    @Getter
+    private final Timer readTimer;
+
+    /**
+     * 每个包的字符串数
+     */
+    @Getter
+    private final DistributionSummary packStrs;
+
+    /**
+     * 每个包编码(压缩)后的字节数
+     */
+    @Getter
+    private final DistributionSummary packBytes;
+
+    /**
+     * 最近一次提交成功的packNo
+     */
+    private final AtomicLong committedPackNo = new AtomicLong(-1);
+
+    /**
+     * 订阅者名字 -> 落后的包数, 由refreshReaderLag定期刷新, 停用的订阅者连同gauge一起移除
+     */
+    private final Map<String, AtomicLong> readerLags = new ConcurrentHashMap<>();
+
+    private final Map<String, Gauge> readerLagGauges = new ConcurrentHashMap<>();
+
+    public PackMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.fetchTimer = timer("fetch");
+        this.serializeTimer = timer("serialize");
+        this.commitTimer = timer("commit");
+        this.readTimer = timer("read");
+        this.packStrs = DistributionSummary.builder(PREFIX + "pack.strs").register(registry);
+        this.packBytes = DistributionSummary.builder(PREFIX + "pack.bytes").baseUnit("bytes").register(registry);
+        Gauge.builder(PREFIX + "pack.no", committedPackNo, AtomicLong::get).register(registry);
+    }
+
+    /**
+     * 不输出到任何地方的指标, 供benchmark和只读客户端使用
+     */
+    public static PackMetrics noop() {
+        return new PackMetrics(new CompositeMeterRegistry());
+    }
+
+    private Timer timer(String stage) {
+        return Timer.builder(PREFIX + stage)
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+    }
+
+    /**
+     * @param stage fetch, sequence, serialize, commit, drop, read, decode
+     */
+    public Counter failures(String stage) {
+        return registry.counter(PREFIX + "failures", "stage", stage);
+    }
+
+    public void packCommitted(long packNo) {
+        committedPackNo.accumulateAndGet(packNo, Math::max);
+    }
+
+    public void bindNode(Node node) {
+        Gauge.builder(PREFIX + "leader.term", node, n -> n.getLeaderTerm().get()).register(registry);
+    }
+
+    public void bindWriter(PackWriter packWriter) {
+        Gauge.builder(PREFIX + "writer.inflight", packWriter, PackWriter::getInFlight).register(registry);
+    }
+
+    public void bindCompressor(PayloadCompressor compressor) {
+        FunctionCounter.builder(PREFIX + "compression.raw.bytes", compressor, c -> c.getRawBytes().get())
+                .baseUnit("bytes").register(registry);
+        FunctionCounter.builder(PREFIX + "compression.compressed.bytes", compressor, c -> c.getCompressedBytes().get())
+                .baseUnit("bytes").register(registry);
+        FunctionCounter.builder(PREFIX + "compression.skipped", compressor, c -> c.getSkipped().get())
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "compression.compress.seconds", compressor,
+                c -> c.getCompressNanos().get() / 1e9).register(registry);
+        FunctionCounter.builder(PREFIX + "compression.decompress.seconds", compressor,
+                c -> c.getDecompressNanos().get() / 1e9).register(registry);
+    }
+
+    /**
+     * 读取活跃订阅者的游标, 落后包数 = 已提交的下一个packNo - 游标
+     * 已提交的packNo取各分片计数器的最大值, 不依赖本节点是不是leader
+     * 超过ttlMs没有心跳的订阅者视为已停用, 移除它的gauge, 不再影响getMaxReaderLag
+     */
+    public void refreshReaderLag(RheaKVStore rheaKVStore, PackKeys packKeys, long ttlMs) {
+        long committed = PackNoAllocator.getCommittedPackNo(rheaKVStore, packKeys);
+        Map<String, Long> cursors = PackSubscriber.loadCursors(rheaKVStore, ttlMs);
+        for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+            long lag = Math.max(0, committed - cursor.getValue());
+            readerLags.computeIfAbsent(cursor.getKey(), key -> {
+                AtomicLong value = new AtomicLong();
+                readerLagGauges.put(key, Gauge.builder(PREFIX + "reader.lag", value, AtomicLong::get)
+                        .tags(Tags.of("reader", key)).register(registry));
+                return value;
+            }).set(lag);
+        }
+        readerLags.keySet().removeIf(key -> {
+            if (cursors.containsKey(key)) {
+                return false;
+            }
+            Gauge gauge = readerLagGauges.remove(key);
+            if (gauge != null) {
+                registry.remove(gauge);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * @return 落后最多的订阅者落后的包数, 没有订阅者时为0
+     */
+    public long getMaxReaderLag() {
+        long max = 0;
+        for (AtomicLong lag : readerLags.values()) {
+            max = Math.max(max, lag.get());
+        }
+        return max;
+    }
+
+    /**
+     * 记录从startNanos到现在的耗时
+     */
+    public static void record(Timer timer, long startNanos) {
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
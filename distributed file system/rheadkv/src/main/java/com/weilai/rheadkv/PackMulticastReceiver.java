@@ -0,0 +1,322 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import com.alipay.sofa.jraft.util.Bits;
+import com.google.common.collect.Lists;
+import io.vertx.core.Vertx;
+import io.vertx.core.datagram.DatagramSocket;
+import io.vertx.core.datagram.DatagramSocketOptions;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.Inet4Address;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 接收leader组播的包, 按packNo顺序投递, 格式见PackMulticaster
+ * 1.报文在vertx的event loop里只入队, 解码、排序、补齐都在单独的线程里做, 不阻塞event loop
+ * 2.组播序号不连续(丢包)时马上用scan从KVStore补齐缺口, 每gapFillMs检查一次
+ * 3.各分片的提交乱序完成, packNo乱序是常态, 只要组播序号连续就等排在前面的包, 不去KVStore扫描;
+ *   packNo缺口超过idleCheckMs仍没补上(没有组播过, 例如写入失败或换leader作废的号)才扫描一次
+ * 4.超过idleCheckMs没有收到报文时扫描一次游标之后的范围, 防止最后几个报文丢失后一直等不到下一个报文
+ * 5.KVStore里也没有的包(写入失败)超过gapTimeoutMs后跳过
+ * 6.拆成多个报文的包收齐后再解码, 缺了分片的包由序号缺口触发补齐
+ */
+@Slf4j
+public class PackMulticastReceiver {
+
+    private final Vertx vertx = Vertx.vertx();
+
+    private final RheaKVStore rheaKVStore;
+
+    private final BodyCodec bodyCodec;
+
+    private final PackKeys packKeys;
+
+    private final PackListener listener;
+
+    private final String group;
+
+    private final int port;
+
+    @Setter
+    private long gapFillMs = 20;
+
+    @Setter
+    private long gapTimeoutMs = 5000;
+
+    @Setter
+    private long idleCheckMs = 1000;
+
+    @Setter
+    private int pageSize = 1000;
+
+    private final BlockingQueue<byte[]> datagrams = new LinkedBlockingQueue<>();
+
+    /**
+     * 已收到但前面还有缺口的包
+     */
+    private final TreeMap<Long, StrsPack> pending = new TreeMap<>();
+
+    /**
+     * 还没收齐分片的包, packNo -> 各分片的value
+     */
+    private final TreeMap<Long, byte[][]> fragments = new TreeMap<>();
+
+    /**
+     * 下一个要投递的packNo, 小于0时以收到的第一个包为起点
+     */
+    @Getter
+    private volatile long cursor;
+
+    private long term = -1;
+
+    private long lastSeq = -1;
+
+    private boolean seqGap;
+
+    private long gapSinceNanos;
+
+    private long lastReceiveNanos = System.nanoTime();
+
+    @Getter
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * 从KVStore补齐的包数
+     */
+    @Getter
+    private final AtomicLong filled = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    private DatagramSocket socket;
+
+    public PackMulticastReceiver(RheaKVStore rheaKVStore, BodyCodec bodyCodec, PackKeys packKeys, PackListener listener,
+                                 String group, int port, long startPackNo) {
+        this.rheaKVStore = rheaKVStore;
+        this.bodyCodec = bodyCodec;
+        this.packKeys = packKeys;
+        this.listener = listener;
+        this.group = group;
+        this.port = port;
+        this.cursor = startPackNo;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::runLoop, "pack-multicast-receiver");
+        thread.start();
+
+        socket = vertx.createDatagramSocket(new DatagramSocketOptions());
+        socket.listen(port, "0.0.0.0", listenRes -> {
+            if (listenRes.failed()) {
+                log.error("[PackMulticastReceiver] listen {} failed", port, listenRes.cause());
+                return;
+            }
+            socket.handler(packet -> datagrams.offer(packet.data().getBytes()));
+            try {
+                socket.listenMulticastGroup(group, mainInterface().getName(), null, joinRes ->
+                        log.info("[PackMulticastReceiver] join {}:{} succeed? {}", group, port, joinRes.succeeded()));
+            } catch (Exception e) {
+                log.error("[PackMulticastReceiver] join {} failed", group, e);
+            }
+        });
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        if (socket != null) {
+            socket.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+        vertx.close();
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                byte[] datagram = datagrams.poll(gapFillMs, TimeUnit.MILLISECONDS);
+                while (datagram != null) {
+                    onDatagram(datagram);
+                    datagram = datagrams.poll();
+                }
+                deliver();
+                if (cursor >= 0 && needFill()) {
+                    fill();
+                    deliver();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("[PackMulticastReceiver] poll error, cursor {}", cursor, e);
+            }
+        }
+    }
+
+    private void onDatagram(byte[] datagram) {
+        lastReceiveNanos = System.nanoTime();
+        if (datagram.length < PackMulticaster.HEADER_SIZE || Bits.getInt(datagram, 0) != PackMulticaster.MAGIC) {
+            return;
+        }
+        received.incrementAndGet();
+        long packetTerm = Bits.getLong(datagram, 4);
+        long seq = Bits.getLong(datagram, 12);
+        long packNo = Bits.getLong(datagram, 20);
+        int fragmentIndex = Bits.getShort(datagram, 28);
+        int fragmentCount = Bits.getShort(datagram, 30);
+        if (packetTerm != term) {
+            //换了leader, 序号重新开始, 旧leader最后的包可能没发出来, 检查一次缺口
+            term = packetTerm;
+            seqGap = true;
+        } else if (seq != lastSeq + 1) {
+            seqGap = true;
+        }
+        lastSeq = seq;
+
+        if (cursor < 0) {
+            cursor = packNo;
+        }
+        if (packNo < cursor || pending.containsKey(packNo)) {
+            return;
+        }
+        if (fragmentCount <= 0 || fragmentIndex < 0 || fragmentIndex >= fragmentCount) {
+            return;
+        }
+        try {
+            if (fragmentCount == 1) {
+                pending.put(packNo, bodyCodec.deserialize(datagram, PackMulticaster.HEADER_SIZE,
+                        datagram.length - PackMulticaster.HEADER_SIZE, StrsPack.class));
+                return;
+            }
+            byte[][] parts = fragments.computeIfAbsent(packNo, key -> new byte[fragmentCount][]);
+            if (parts.length != fragmentCount) {
+                fragments.remove(packNo);
+                return;
+            }
+            parts[fragmentIndex] = Arrays.copyOfRange(datagram, PackMulticaster.HEADER_SIZE, datagram.length);
+            int length = 0;
+            for (byte[] part : parts) {
+                if (part == null) {
+                    return;
+                }
+                length += part.length;
+            }
+            fragments.remove(packNo);
+            byte[] value = new byte[length];
+            int offset = 0;
+            for (byte[] part : parts) {
+                System.arraycopy(part, 0, value, offset, part.length);
+                offset += part.length;
+            }
+            pending.put(packNo, bodyCodec.deserialize(value, StrsPack.class));
+        } catch (Exception e) {
+            //解码失败当作丢包, 从KVStore补
+            seqGap = true;
+        }
+    }
+
+    /**
+     * 投递从游标开始连续的包
+     */
+    private void deliver() throws Exception {
+        List<StrsPack> packs = Lists.newArrayList();
+        while (!pending.isEmpty() && pending.firstKey() <= cursor) {
+            StrsPack strsPack = pending.pollFirstEntry().getValue();
+            if (strsPack.getPackNo() == cursor) {
+                packs.add(strsPack);
+                cursor++;
+            }
+        }
+        if (!packs.isEmpty()) {
+            listener.onPacks(packs);
+            gapSinceNanos = 0;
+        }
+        //从KVStore补齐了的包不会再收齐分片
+        fragments.headMap(cursor).clear();
+    }
+
+    private boolean needFill() {
+        long now = System.nanoTime();
+        if (seqGap || now - lastReceiveNanos > TimeUnit.MILLISECONDS.toNanos(idleCheckMs)) {
+            return true;
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        if (gapSinceNanos == 0) {
+            gapSinceNanos = now;
+        }
+        return now - gapSinceNanos > TimeUnit.MILLISECONDS.toNanos(idleCheckMs);
+    }
+
+    /**
+     * 从KVStore读取 [cursor, 第一个已收到的包) 范围内的包, 读不到的超时后跳过
+     */
+    private void fill() {
+        seqGap = false;
+        lastReceiveNanos = System.nanoTime();
+        long to = pending.isEmpty() ? cursor + pageSize : Math.min(pending.firstKey(), cursor + pageSize);
+        List<KVEntry> kvEntries = PackSubscriber.scanRange(rheaKVStore, packKeys, cursor, to, true);
+        for (KVEntry entry : kvEntries) {
+            long packNo = PackKeys.packNoOf(entry.getKey());
+            try {
+                pending.put(packNo, bodyCodec.deserialize(entry.getValue(), StrsPack.class));
+                filled.incrementAndGet();
+            } catch (Exception e) {
+                log.error("[PackMulticastReceiver] decode pack {} error", packNo, e);
+            }
+        }
+        if (kvEntries.size() >= pageSize) {
+            //整页都有数据, 说明积压还没补完, 下一轮继续补
+            seqGap = true;
+        }
+        if (!pending.isEmpty() && pending.firstKey() > cursor) {
+            if (gapSinceNanos == 0) {
+                gapSinceNanos = System.nanoTime();
+            } else if (System.nanoTime() - gapSinceNanos > TimeUnit.MILLISECONDS.toNanos(gapTimeoutMs)) {
+                log.warn("[PackMulticastReceiver] skip missing packs [{}, {})", cursor, pending.firstKey());
+                cursor = pending.firstKey();
+                gapSinceNanos = 0;
+            }
+        }
+    }
+
+    private static NetworkInterface mainInterface() throws Exception {
+        final ArrayList<NetworkInterface> interfaces = Collections.list(NetworkInterface.getNetworkInterfaces());
+        NetworkInterface networkInterface = interfaces.stream().filter(t -> {
+            try {
+                boolean isLoopback = t.isLoopback();
+                boolean supportsMulticast = t.supportsMulticast();
+                boolean isVirtualBox = t.getDisplayName().contains("VirtualBox") || t.getDisplayName().contains("Host-only");
+                boolean hasIpv4 = t.getInterfaceAddresses().stream().anyMatch(ia -> ia.getAddress() instanceof Inet4Address);
+                return !isLoopback && supportsMulticast && !isVirtualBox && hasIpv4;
+            } catch (Exception e) {
+                log.error("find net interface error", e);
+            }
+            return false;
+        }).sorted(Comparator.comparing(NetworkInterface::getName)).findFirst().orElse(null);  //找到第一个符合条件的网卡，否则返回空
+        if (networkInterface == null) {
+            throw new IllegalStateException("No Network Interface available");
+        }
+        return networkInterface;
+    }
+}
@@ -0,0 +1,104 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.util.Bits;
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.datagram.DatagramSocket;
+import io.vertx.core.datagram.DatagramSocketOptions;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * leader把提交成功的包组播出去, 订阅者直接接收, 不用每个订阅者都去KVStore拉取
+ * 报文格式: [MAGIC int][leader任期 long][组播序号 long][packNo long][分片序号 short][分片数 short][value的一段]
+ * 1.组播序号每个报文加1, 接收端发现序号不连续就知道丢了报文, 马上用scan补齐, 不用等超时
+ * 2.包按提交完成的顺序发送, packNo可能乱序, 由接收端排序
+ * 3.报文不超过maxDatagramBytes(默认1400, 在以太网MTU之内), 否则IP层分片后丢任何一片整个报文都会丢;
+ *   更大的包拆成多个报文, 丢了其中一个只影响这一个包, 接收端通过序号缺口去KVStore读取
+ * 4.需要超过MAX_FRAGMENTS个报文的包不发送但仍占用一个序号
+ */
+@Slf4j
+public class PackMulticaster {
+
+    static final int MAGIC = 0x524B4D43;
+
+    static final int HEADER_SIZE = 4 + 8 + 8 + 8 + 2 + 2;
+
+    static final int MAX_FRAGMENTS = 256;
+
+    private final Vertx vertx = Vertx.vertx();
+
+    private final DatagramSocket socket = vertx.createDatagramSocket(new DatagramSocketOptions());
+
+    private final Node node;
+
+    private final String group;
+
+    private final int port;
+
+    private final int maxDatagramBytes;
+
+    private long seq;
+
+    private final Counter sent;
+
+    private final Counter oversized;
+
+    private final Counter failures;
+
+    private final RateLimiter errorLogLimiter = RateLimiter.create(1);
+
+    public PackMulticaster(Node node, String group, int port, int maxDatagramBytes, PackMetrics metrics) {
+        if (maxDatagramBytes <= HEADER_SIZE) {
+            throw new IllegalArgumentException("multicast.maxdatagrambytes must be greater than " + HEADER_SIZE);
+        }
+        this.node = node;
+        this.group = group;
+        this.port = port;
+        this.maxDatagramBytes = maxDatagramBytes;
+        this.sent = metrics.getRegistry().counter("rheadkv.multicast.sent");
+        this.oversized = metrics.getRegistry().counter("rheadkv.multicast.oversized");
+        this.failures = metrics.failures("multicast");
+    }
+
+    /**
+     * 在Raft提交成功的回调线程里调用, 多个回调线程并发, 加锁保证序号和发送顺序一致
+     */
+    public synchronized void publish(long packNo, byte[] value) {
+        int fragmentBytes = maxDatagramBytes - HEADER_SIZE;
+        int fragments = Math.max(1, (value.length + fragmentBytes - 1) / fragmentBytes);
+        if (fragments > MAX_FRAGMENTS) {
+            seq++;
+            oversized.increment();
+            return;
+        }
+        long term = node.getLeaderTerm().get();
+        for (int i = 0; i < fragments; i++) {
+            int offset = i * fragmentBytes;
+            int length = Math.min(fragmentBytes, value.length - offset);
+            byte[] header = new byte[HEADER_SIZE];
+            Bits.putInt(header, 0, MAGIC);
+            Bits.putLong(header, 4, term);
+            Bits.putLong(header, 12, seq++);
+            Bits.putLong(header, 20, packNo);
+            Bits.putShort(header, 28, (short) i);
+            Bits.putShort(header, 30, (short) fragments);
+            Buffer buffer = Buffer.buffer(HEADER_SIZE + length).appendBytes(header).appendBytes(value, offset, length);
+            socket.send(buffer, port, group, ar -> {
+                if (ar.failed()) {
+                    failures.increment();
+                    if (errorLogLimiter.tryAcquire()) {
+                        log.warn("[PackMulticaster] send pack {} failed: {}", packNo, ar.cause().getMessage());
+                    }
+                }
+            });
+        }
+        sent.increment();
+    }
+
+    public void close() {
+        socket.close();
+        vertx.close();
+    }
+}
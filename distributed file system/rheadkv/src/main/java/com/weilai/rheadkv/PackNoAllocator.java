@@ -0,0 +1,131 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.util.ByteArray;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.ArrayUtils;
+
+import java.util.Map;
+
+/**
+ * 按号段分配packNo
+ * 1.KVStore里的上限key记录已经分配出去的号段上界, 一次compareAndPut预留blockSize个号, 之后在本地递增发号
+ * 2.每个包写入时仍然和分片的PacketNo原子提交(见PackWriter), 那是"已写入"的水位
+ * 3.新任期从上一任的号段上限(和已写入水位取大)开始预留, 上一任leader只能发上限以下的号, 两任的号不会重叠;
+ *   上一任下一次预留号段时compareAndPut失败, 自然被隔离
+ * 4.上一任预留了但没用完的号段作废, packNo会留下空洞, 读端按缺号超时(gapTimeoutMs)跳过;
+ *   空洞可能比订阅者的一页(pageSize)还长, 订阅者扫到空页时向后探测下一个现存的包(见PackGaps), 不会停在空洞里;
+ *   不能从已写入水位回收: 上一任在途的批次可能在新leader读水位之后才提交, 同一个packNo会被两任各写一次
+ * 只在排队机线程里调用, 不是线程安全的
+ */
+@Slf4j
+public class PackNoAllocator {
+
+    private final RheaKVStore rheaKVStore;
+
+    private final PackKeys packKeys;
+
+    private final int blockSize;
+
+    private final byte[] limitKey;
+
+    /**
+     * 下一个要发的号
+     */
+    private long next;
+
+    /**
+     * 当前号段的上界(不包含), 也是KVStore里上限key的值
+     */
+    private long limit;
+
+    /**
+     * 号段是在哪个任期里预留的
+     */
+    private long term = -1;
+
+    public PackNoAllocator(RheaKVStore rheaKVStore, PackKeys packKeys, int blockSize) {
+        this.rheaKVStore = rheaKVStore;
+        this.packKeys = packKeys;
+        this.blockSize = blockSize;
+        this.limitKey = packKeys.packNoLimitKey();
+    }
+
+    /**
+     * 分配一个packNo
+     *
+     * @param currentTerm 当前的leader任期, 任期变化时重新预留号段
+     * @throws IllegalStateException 号段被其它leader抢先修改, 说明本节点已经不是leader
+     */
+    public long next(long currentTerm) {
+        if (currentTerm != term) {
+            reclaim();
+            term = currentTerm;
+        }
+        if (next >= limit) {
+            reserve(limit, limit + blockSize);
+        }
+        return next++;
+    }
+
+    /**
+     * 从上一任的号段上限开始预留新号段, 上一任没用完的号段作废
+     */
+    private void reclaim() {
+        long committed = getCommittedPackNo(rheaKVStore, packKeys);
+        byte[] current = rheaKVStore.bGet(limitKey);
+        long start = ArrayUtils.isEmpty(current) ? committed : Math.max(committed, PackKeys.bytesToLong(current));
+        long newLimit = start + blockSize;
+        if (ArrayUtils.isEmpty(current)) {
+            byte[] previous = rheaKVStore.bPutIfAbsent(limitKey, PackKeys.longToBytes(newLimit));
+            if (previous != null) {
+                throw new IllegalStateException("pack no limit was created by another leader");
+            }
+        } else if (!rheaKVStore.bCompareAndPut(limitKey, current, PackKeys.longToBytes(newLimit))) {
+            throw new IllegalStateException("pack no limit was changed by another leader");
+        }
+        log.info("[PackNoAllocator] reserve [{}, {}) for new term, committed {}, previous limit {}",
+                start, newLimit, committed, ArrayUtils.isEmpty(current) ? null : PackKeys.bytesToLong(current));
+        next = start;
+        limit = newLimit;
+    }
+
+    private void reserve(long expectLimit, long newLimit) {
+        if (!rheaKVStore.bCompareAndPut(limitKey, PackKeys.longToBytes(expectLimit), PackKeys.longToBytes(newLimit))) {
+            //下次调用时重新收回
+            term = -1;
+            throw new IllegalStateException("pack no limit was changed by another leader");
+        }
+        limit = newLimit;
+    }
+
+    /**
+     * 各分片PacketNo的最大值, 即下一个还没写入的packNo, 都为空的话则返回0
+     */
+    static long getCommittedPackNo(RheaKVStore rheaKVStore, PackKeys packKeys) {
+        //各分片的PacketNo分别在各自的region里, multiGet会按region拆开并行读取
+        final Map<ByteArray, byte[]> bPacketNos = rheaKVStore.bMultiGet(packKeys.packNoKeys());
+
+        long packetNo = 0;
+        for (byte[] bPacketNo : bPacketNos.values()) {
+            if (ArrayUtils.isNotEmpty(bPacketNo)) {
+                packetNo = Math.max(packetNo, PackKeys.bytesToLong(bPacketNo));
+            }
+        }
+        return packetNo;
+    }
+
+    /**
+     * 各分片PacketNo的最小值, 空的分片按0算
+     * 比它小的包一般都已提交; 同一分片的批次乱序完成时仍可能有在途的, 使用方要能处理缺号
+     */
+    static long getMinShardPackNo(RheaKVStore rheaKVStore, PackKeys packKeys) {
+        final Map<ByteArray, byte[]> bPacketNos = rheaKVStore.bMultiGet(packKeys.packNoKeys());
+
+        long packetNo = Long.MAX_VALUE;
+        for (byte[] bPacketNo : bPacketNos.values()) {
+            packetNo = Math.min(packetNo, ArrayUtils.isNotEmpty(bPacketNo) ? PackKeys.bytesToLong(bPacketNo) : 0);
+        }
+        return bPacketNos.isEmpty() ? 0 : packetNo;
+    }
+}
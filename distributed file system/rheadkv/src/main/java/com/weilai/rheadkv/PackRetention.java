@@ -0,0 +1,207 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.Status;
+import com.alipay.sofa.jraft.rhea.RegionEngine;
+import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
+import com.alipay.sofa.jraft.rhea.client.RheaIterator;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.ArrayUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * 按数量或时间清理旧的包, 只在排队机leader上执行
+ * 1.按数量: 只保留最近maxPacks个包
+ * 2.按时间: 包里没有时间戳, 每次执行时记录一个(时间, 已提交packNo)的采样点, 早于maxAgeMs的最新采样点之前的包都过期;
+ *   采样点只在内存里, 切换leader后要再过maxAgeMs才会开始按时间清理
+ * 3.每个分片用一次deleteRange删除[0, floor), 不逐个删除key; 配置了archiveDir时先把要删的包写到段文件里
+ *   删除前先把新的清理线写到retentionFloorKey, 订阅者和PackExporter从清理线开始读, 不会停在已删除的范围里;
+ *   新leader也从这个key恢复清理线, 没有这个key(老数据)时才从各分片现存的第一个包推算
+ * 4.删除后对本节点的所有region做一次快照, 截断Raft日志, 否则被删的包仍然留在日志里; 其他节点按snapshotintervalsecs各自快照
+ * 5.不删除活跃订阅者游标(reader_cursor/)之后的包, 落后的订阅者会让保留的包超过上限,
+ *   这时打告警日志并计入rheadkv.retention.blocked; 超过reader.ttlsecs没有心跳的订阅者不再挡住清理,
+ *   它重新启动时从清理线开始(见PackSubscriber.loadCursor)
+ */
+@Slf4j
+public class PackRetention implements Runnable {
+
+    private final NodeConfig nodeConfig;
+
+    private final long maxPacks;
+
+    private final long maxAgeMs;
+
+    private final long readerTtlMs;
+
+    private final String archiveDir;
+
+    /**
+     * (时间毫秒, 已提交的下一个packNo)
+     */
+    private final Deque<long[]> samples = new ArrayDeque<>();
+
+    /**
+     * 已经删除到的packNo(不含), 小于0表示未知, 成为leader后从retentionFloorKey读取
+     */
+    private long floor = -1;
+
+    private final Counter deleted;
+
+    private final Counter blocked;
+
+    public PackRetention(NodeConfig nodeConfig) {
+        this.nodeConfig = nodeConfig;
+        this.maxPacks = nodeConfig.getRetentionMaxPacks();
+        this.maxAgeMs = nodeConfig.getRetentionMaxAgeSecs() * 1000;
+        this.readerTtlMs = nodeConfig.getReaderTtlSecs() * 1000;
+        this.archiveDir = nodeConfig.getRetentionArchiveDir();
+        this.deleted = nodeConfig.getMetrics().getRegistry().counter("rheadkv.retention.deleted");
+        this.blocked = nodeConfig.getMetrics().getRegistry().counter("rheadkv.retention.blocked");
+    }
+
+    @Override
+    public void run() {
+        if (!nodeConfig.getNode().isLeader()) {
+            samples.clear();
+            floor = -1;
+            return;
+        }
+        try {
+            RheaKVStore rheaKVStore = nodeConfig.getNode().getRheaKVStore();
+            long committed = PackNoAllocator.getCommittedPackNo(rheaKVStore, nodeConfig.getPackKeys());
+            if (floor < 0) {
+                byte[] stored = rheaKVStore.bGet(PackKeys.retentionFloorKey());
+                floor = ArrayUtils.isNotEmpty(stored) ? PackKeys.bytesToLong(stored) : firstStoredPackNo(rheaKVStore, committed);
+                log.info("[PackRetention] packs before {} were already deleted", floor);
+            }
+            long newFloor = holdForReaders(rheaKVStore, computeFloor(committed, System.currentTimeMillis()));
+            if (newFloor <= floor) {
+                return;
+            }
+            if (!archiveDir.isEmpty()) {
+                archive(rheaKVStore, floor, newFloor);
+            }
+            //先公布清理线再删除, 订阅者看到空的范围时已经能知道要跳到哪里
+            if (!Boolean.TRUE.equals(rheaKVStore.bPut(PackKeys.retentionFloorKey(), PackKeys.longToBytes(newFloor)))) {
+                throw new IllegalStateException("put retention floor " + newFloor + " failed");
+            }
+            deleteRange(rheaKVStore, newFloor);
+            log.info("[PackRetention] deleted packs [{}, {})", floor, newFloor);
+            deleted.increment(newFloor - floor);
+            floor = newFloor;
+            snapshot();
+        } catch (Exception e) {
+            nodeConfig.getMetrics().failures("retention").increment();
+            log.error("[PackRetention] retention error", e);
+        }
+    }
+
+    /**
+     * @return 小于这个packNo的包都要删除
+     */
+    private long computeFloor(long committed, long now) {
+        long newFloor = 0;
+        if (maxPacks > 0) {
+            newFloor = Math.max(newFloor, committed - maxPacks);
+        }
+        if (maxAgeMs > 0) {
+            samples.addLast(new long[]{now, committed});
+            long[] expired = null;
+            while (!samples.isEmpty() && now - samples.peekFirst()[0] >= maxAgeMs) {
+                expired = samples.pollFirst();
+            }
+            if (expired != null) {
+                //保留最新的过期采样点, 下次仍然可以用它计算
+                samples.addFirst(expired);
+                newFloor = Math.max(newFloor, expired[1]);
+            }
+        }
+        return newFloor;
+    }
+
+    /**
+     * 不超过落后最多的订阅者的游标
+     */
+    private long holdForReaders(RheaKVStore rheaKVStore, long newFloor) {
+        Map.Entry<String, Long> slowest = null;
+        for (Map.Entry<String, Long> cursor : PackSubscriber.loadCursors(rheaKVStore, readerTtlMs).entrySet()) {
+            if (slowest == null || cursor.getValue() < slowest.getValue()) {
+                slowest = cursor;
+            }
+        }
+        if (slowest == null || slowest.getValue() >= newFloor) {
+            return newFloor;
+        }
+        blocked.increment();
+        log.warn("[PackRetention] reader {} at packNo {} holds back retention to {}, {} packs over the limit",
+                slowest.getKey(), slowest.getValue(), newFloor, newFloor - slowest.getValue());
+        return slowest.getValue();
+    }
+
+    /**
+     * 各分片现存的第一个包的最小值, 全部为空时返回committed
+     * 扫描范围到committed为止, 不会扫到分片的PacketNo计数器
+     */
+    private long firstStoredPackNo(RheaKVStore rheaKVStore, long committed) {
+        PackKeys packKeys = nodeConfig.getPackKeys();
+        long first = committed;
+        for (int shard = 0; shard < packKeys.getRegionCount(); shard++) {
+            RheaIterator<KVEntry> iterator = rheaKVStore.iterator(packKeys.packKey(shard, 0),
+                    packKeys.packKey(shard, committed), 1);
+            if (iterator.hasNext()) {
+                first = Math.min(first, PackKeys.packNoOf(iterator.next().getKey()));
+            }
+        }
+        return first;
+    }
+
+    /**
+     * 读取清理线, 没有执行过清理时返回0
+     */
+    static long loadFloor(RheaKVStore rheaKVStore) {
+        byte[] bytes = rheaKVStore.bGet(PackKeys.retentionFloorKey());
+        return ArrayUtils.isNotEmpty(bytes) ? PackKeys.bytesToLong(bytes) : 0;
+    }
+
+    /**
+     * 把 [from, to) 范围内的包写到段文件 packs-from-to.seg, 格式见PackFile
+     */
+    private void archive(RheaKVStore rheaKVStore, long from, long to) throws IOException {
+        Path dir = Paths.get(archiveDir);
+        Files.createDirectories(dir);
+        PackFile.export(rheaKVStore, nodeConfig.getPackKeys(), from, to, dir.resolve("packs-" + from + "-" + to + ".seg"));
+    }
+
+    /**
+     * 每个分片删除 [packKey(shard, 0), packKey(shard, to)), 分片的PacketNo计数器的key不在这个范围里
+     */
+    private void deleteRange(RheaKVStore rheaKVStore, long to) {
+        PackKeys packKeys = nodeConfig.getPackKeys();
+        for (int shard = 0; shard < packKeys.getRegionCount(); shard++) {
+            if (!Boolean.TRUE.equals(rheaKVStore.bDeleteRange(packKeys.packKey(shard, 0), packKeys.packKey(shard, to)))) {
+                throw new IllegalStateException("delete range of shard " + shard + " failed");
+            }
+        }
+    }
+
+    private void snapshot() {
+        DefaultRheaKVStore rheaKVStore = (DefaultRheaKVStore) nodeConfig.getNode().getRheaKVStore();
+        for (RegionEngine regionEngine : rheaKVStore.getStoreEngine().getAllRegionEngines()) {
+            final long regionId = regionEngine.getRegion().getId();
+            regionEngine.getNode().snapshot((Status status) -> {
+                if (!status.isOk()) {
+                    log.warn("[PackRetention] snapshot region {} failed: {}", regionId, status);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.util.NamedThreadFactory;
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.EventTranslatorTwoArg;
+import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排队机: 网关的生产者把原始字符串发布到RingBuffer, 由SequencerHandler单线程定序、打包并写入Raft
+ * 接收数据和Raft提交解耦, 突发流量先在RingBuffer里排队, RingBuffer满了生产者会阻塞
+ */
+@Slf4j
+public class PackSequencer {
+
+    private static final EventTranslatorOneArg<StrEvent, String> TRANSLATOR =
+            (event, sequence, str) -> event.setStr(str);
+
+    private static final EventTranslatorTwoArg<StrEvent, IngestRequest, CompletableFuture<Long>> BATCH_TRANSLATOR =
+            (event, sequence, request, ack) -> {
+                event.setStrs(request.getStrs());
+                event.setProducerId(request.getProducerId());
+                event.setSeq(request.getSeq());
+                event.setAck(ack);
+            };
+
+    private final Disruptor<StrEvent> disruptor;
+
+    public PackSequencer(NodeConfig nodeConfig) {
+        //RingBuffer里没有新数据时, 最多等待packFlushMs就回调一次onTimeout, 用来按时间打包
+        this.disruptor = new Disruptor<>(
+                StrEvent::new,
+                nodeConfig.getRingBufferSize(),   //必须是2的幂
+                new NamedThreadFactory("pack-sequencer-", true),
+                ProducerType.MULTI,
+                new TimeoutBlockingWaitStrategy(nodeConfig.getPackFlushMs(), TimeUnit.MILLISECONDS));
+        this.disruptor.handleEventsWith(new SequencerHandler(nodeConfig));
+    }
+
+    public void start() {
+        disruptor.start();
+        log.info("pack sequencer started");
+    }
+
+    public void shutdown() {
+        //等待RingBuffer里已发布的数据处理完
+        disruptor.shutdown();
+    }
+
+    /**
+     * 发布一条字符串, 可以在任意线程调用
+     */
+    public void publish(String str) {
+        disruptor.getRingBuffer().publishEvent(TRANSLATOR, str);
+    }
+
+    /**
+     * 发布生产者的一批字符串, 这批字符串会整体放进同一个包里, 和其他生产者的数据一起提交(group commit)
+     * 同一个producerId和seq重复发布时只入库一次, 见SequencerHandler
+     *
+     * @param ack 包提交成功后用packNo完成
+     */
+    public void publish(IngestRequest request, CompletableFuture<Long> ack) {
+        disruptor.getRingBuffer().publishEvent(BATCH_TRANSLATOR, request, ack);
+    }
+}
@@ -0,0 +1,386 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import com.alipay.sofa.jraft.util.Bits;
+import com.alipay.sofa.jraft.util.BytesUtil;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.ArrayUtils;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订阅KVStore里的包
+ * 1.追赶模式: 每次扫描pageSize个key, 扫满一页说明还有积压, 不休眠直接扫下一页
+ * 2.跟随模式: 扫不满一页说明已追上, 没有新数据时休眠时间从minBackoffMs开始翻倍, 最多maxBackoffMs
+ * 3.游标(下一个要投递的packNo)定期保存在KVStore里, 重启后从游标处继续; 没有游标的新订阅者从清理线开始
+ * 4.新的订阅者可以先从PackExporter导出的文件追赶, 再从文件的结束位置开始订阅, 不需要逐页扫描全部历史
+ * 5.游标处缺号时按PackGaps的规则等待或跳过, 整页为空时向后探测下一个现存的包
+ * 6.游标的值是 [游标 8字节][保存时间 8字节], 游标不动时也每cursorCommitMs保存一次作为心跳;
+ *   超过reader.ttlsecs没有心跳的订阅者视为已停用, 不再计入落后包数、抓取限流和清理的保留线
+ */
+@Slf4j
+public class PackSubscriber {
+
+    static final String CURSOR_KEY_PREFIX = "reader_cursor/";
+
+    private final RheaKVStore rheaKVStore;
+
+    private final BodyCodec bodyCodec;
+
+    private final PackKeys packKeys;
+
+    @Getter
+    private final String name;
+
+    private final PackListener listener;
+
+    private final byte[] cursorKey;
+
+    /**
+     * 每次扫描的key数量
+     */
+    @Setter
+    private int pageSize = 1000;
+
+    @Setter
+    private long minBackoffMs = 1;
+
+    @Setter
+    private long maxBackoffMs = 100;
+
+    /**
+     * 中间缺号超过这个时间仍没补上就跳过(写入失败的包不会再出现)
+     */
+    @Setter
+    private long gapTimeoutMs = 5000;
+
+    /**
+     * 游标保存的间隔, 也是心跳间隔
+     */
+    @Setter
+    private long cursorCommitMs = 1000;
+
+    /**
+     * 一致性级别, 必须和RheaKVStore初始化时的onlyLeaderRead一致
+     */
+    @Setter
+    private ReadConsistency readConsistency = ReadConsistency.LINEARIZABLE;
+
+    /**
+     * FOLLOWER_READ时结果最多落后的时间, 见StalenessBound
+     */
+    @Setter
+    private long maxStalenessMs = 1000;
+
+    private StalenessBound stalenessBound;
+
+    /**
+     * 扫描耗时和解码、扫描失败次数
+     */
+    @Setter
+    private PackMetrics metrics = PackMetrics.noop();
+
+    private final RateLimiter errorLogLimiter = RateLimiter.create(1);
+
+    /**
+     * 下一个要投递的packNo
+     */
+    @Getter
+    private volatile long cursor;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    public PackSubscriber(RheaKVStore rheaKVStore, BodyCodec bodyCodec, PackKeys packKeys,
+                          String name, PackListener listener) {
+        this.rheaKVStore = rheaKVStore;
+        this.bodyCodec = bodyCodec;
+        this.packKeys = packKeys;
+        this.name = name;
+        this.listener = listener;
+        this.cursorKey = cursorKey(name);
+    }
+
+    public static byte[] cursorKey(String name) {
+        return BytesUtil.writeUtf8(CURSOR_KEY_PREFIX + name);
+    }
+
+    public void start() {
+        cursor = loadCursor();
+        log.info("[PackSubscriber] {} start from packNo {}", name, cursor);
+        startLoop();
+    }
+
+    /**
+     * 先从导出文件投递游标之后的包, 再从文件的结束位置开始订阅
+     * 游标已经超过文件范围, 或者文件的起点在游标之后(中间的包文件里没有)时不用文件, 直接订阅
+     */
+    public void start(Path snapshotFile) throws Exception {
+        cursor = loadCursor();
+        try (PackFile.Reader reader = new PackFile.Reader(snapshotFile)) {
+            if (reader.getFrom() > cursor) {
+                log.warn("[PackSubscriber] {} snapshot {} starts at {} after cursor {}, read from store instead",
+                        name, snapshotFile, reader.getFrom(), cursor);
+            } else if (cursor < reader.getTo()) {
+                long start = System.nanoTime();
+                long delivered = replay(reader);
+                rheaKVStore.bPut(cursorKey, cursorValue(cursor));
+                log.info("[PackSubscriber] {} replayed {} packs from {} in {} ms", name, delivered, snapshotFile,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+        log.info("[PackSubscriber] {} start from packNo {}", name, cursor);
+        startLoop();
+    }
+
+    /**
+     * 从游标开始按顺序投递文件里的包, 每投递一批推进一次游标, 最后游标推进到文件的结束位置
+     * 文件在 [from, to) 范围内是完整的(见PackExporter), 文件里没有的号就是写入失败或换leader作废的号, 直接跳过
+     */
+    private long replay(PackFile.Reader reader) throws Exception {
+        List<StrsPack> packs = Lists.newArrayListWithCapacity(pageSize);
+        long start = cursor;
+        long delivered = 0;
+        while (reader.hasNext()) {
+            long packNo = reader.nextPackNo();
+            byte[] value = reader.nextValue();
+            if (packNo < start) {
+                continue;
+            }
+            packs.add(bodyCodec.deserialize(value, StrsPack.class));
+            if (packs.size() >= pageSize) {
+                listener.onPacks(packs);
+                delivered += packs.size();
+                cursor = packNo + 1;
+                packs = Lists.newArrayListWithCapacity(pageSize);
+            }
+        }
+        if (!packs.isEmpty()) {
+            listener.onPacks(packs);
+            delivered += packs.size();
+        }
+        cursor = reader.getTo();
+        if (cursor - start > delivered) {
+            log.info("[PackSubscriber] {} snapshot has no {} packNos in [{}, {}), skipped", name,
+                    cursor - start - delivered, start, cursor);
+        }
+        return delivered;
+    }
+
+    private void startLoop() {
+        stalenessBound = new StalenessBound(rheaKVStore, packKeys, maxStalenessMs);
+        running = true;
+        thread = new Thread(this::runLoop, "pack-subscriber-" + name);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+        //退出前同步保存一次游标
+        rheaKVStore.bPut(cursorKey, cursorValue(cursor));
+    }
+
+    private void runLoop() {
+        long backoffMs = minBackoffMs;
+        long lastCommitNanos = System.nanoTime();
+        PackGaps gaps = new PackGaps(rheaKVStore, packKeys, name, gapTimeoutMs);
+
+        while (running) {
+            try {
+                long from = cursor;
+                final List<KVEntry> kvEntries = scanRange(from, from + pageSize);
+
+                //只投递从游标开始连续的部分, 缺号时等待在途的写入补上
+                List<StrsPack> packs = Lists.newArrayListWithCapacity(kvEntries.size());
+                long expected = from;
+                for (KVEntry entry : kvEntries) {
+                    long packNo = PackKeys.packNoOf(entry.getKey());
+                    if (packNo != expected) {
+                        break;
+                    }
+                    expected++;
+                    byte[] value = entry.getValue();
+                    if (ArrayUtils.isNotEmpty(value)) {
+                        try {
+                            packs.add(bodyCodec.deserialize(value, StrsPack.class));
+                        } catch (Exception e) {
+                            //数据本身损坏, 重试也没有用, 跳过
+                            metrics.failures("decode").increment();
+                            if (errorLogLimiter.tryAcquire()) {
+                                log.error("[PackSubscriber] {} decode pack {} error", name, packNo, e);
+                            }
+                        }
+                    }
+                }
+
+                if (expected > from) {
+                    listener.onPacks(packs);
+                    cursor = expected;
+                    gaps.reset();
+                } else {
+                    //游标处缺号, 页里没有后续的包时向后探测, 缺号段比一页长也不会卡住
+                    long next = kvEntries.isEmpty() ? gaps.probe(from + pageSize)
+                            : PackKeys.packNoOf(kvEntries.get(0).getKey());
+                    if (next < 0) {
+                        gaps.reset();
+                    } else {
+                        cursor = gaps.onGap(from, next);
+                    }
+                }
+
+                //游标没有前进也要保存, 刷新心跳
+                if (System.nanoTime() - lastCommitNanos > TimeUnit.MILLISECONDS.toNanos(cursorCommitMs)) {
+                    commitCursor();
+                    lastCommitNanos = System.nanoTime();
+                }
+
+                if (cursor - from >= pageSize) {
+                    //整页都投递了, 说明还有积压, 不休眠继续追赶
+                    backoffMs = minBackoffMs;
+                    continue;
+                }
+                //已追上, 有新数据就用最短间隔, 没有就逐步退避
+                backoffMs = cursor > from ? minBackoffMs : Math.min(backoffMs * 2, maxBackoffMs);
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                metrics.failures("read").increment();
+                if (errorLogLimiter.tryAcquire()) {
+                    log.error("[PackSubscriber] {} poll error, retry from packNo {}", name, cursor, e);
+                }
+                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 扫描packNo在 [from, to) 范围内的包
+     * FOLLOWER_READ先读follower, 结果没有覆盖到水位时改用ReadIndex重读, 见StalenessBound
+     */
+    private List<KVEntry> scanRange(long from, long to) {
+        long start = System.nanoTime();
+        List<KVEntry> kvEntries;
+        if (readConsistency != ReadConsistency.FOLLOWER_READ) {
+            kvEntries = scanRange(rheaKVStore, packKeys, from, to, true);
+        } else {
+            long watermark = stalenessBound.watermark();
+            kvEntries = scanRange(rheaKVStore, packKeys, from, to, false);
+            long contiguousEnd = from;
+            for (KVEntry entry : kvEntries) {
+                if (PackKeys.packNoOf(entry.getKey()) != contiguousEnd) {
+                    break;
+                }
+                contiguousEnd++;
+            }
+            if (!StalenessBound.covers(contiguousEnd, to, watermark)) {
+                kvEntries = scanRange(rheaKVStore, packKeys, from, to, true);
+            }
+        }
+        PackMetrics.record(metrics.getReadTimer(), start);
+        return kvEntries;
+    }
+
+    /**
+     * 扫描packNo在 [from, to) 范围内的包
+     * 各分片在不同的region里, 并行扫描后按packNo合并
+     */
+    static List<KVEntry> scanRange(RheaKVStore rheaKVStore, PackKeys packKeys, long from, long to, boolean readOnlySafe) {
+        int regionCount = packKeys.getRegionCount();
+        List<CompletableFuture<List<KVEntry>>> futures = Lists.newArrayListWithCapacity(regionCount);
+        for (int shard = 0; shard < regionCount; shard++) {
+            futures.add(rheaKVStore.scan(
+                    packKeys.packKey(shard, from),    //(firstKey included)
+                    packKeys.packKey(shard, to),      //(lastKey excluded)
+                    readOnlySafe));
+        }
+        List<KVEntry> kvEntries = Lists.newArrayList();
+        for (CompletableFuture<List<KVEntry>> future : futures) {
+            kvEntries.addAll(future.join());
+        }
+        if (regionCount > 1) {
+            kvEntries.sort(Comparator.comparingLong(entry -> PackKeys.packNoOf(entry.getKey())));
+        }
+        return kvEntries;
+    }
+
+    /**
+     * 游标的存储格式: [游标 8字节][保存时间 8字节]
+     */
+    static byte[] cursorValue(long cursor) {
+        byte[] value = new byte[16];
+        Bits.putLong(value, 0, cursor);
+        Bits.putLong(value, 8, System.currentTimeMillis());
+        return value;
+    }
+
+    /**
+     * 读取最近ttlMs内保存过游标的订阅者, 订阅者名字 -> 游标
+     * 老格式的游标(只有8字节)没有心跳, 视为已停用; ttlMs为0时返回全部
+     */
+    static Map<String, Long> loadCursors(RheaKVStore rheaKVStore, long ttlMs) {
+        //'0'是'/'的下一个字符, [prefix, prefix0) 正好是所有游标
+        List<KVEntry> entries = rheaKVStore.bScan(BytesUtil.writeUtf8(CURSOR_KEY_PREFIX),
+                BytesUtil.writeUtf8(CURSOR_KEY_PREFIX.substring(0, CURSOR_KEY_PREFIX.length() - 1) + "0"));
+        long now = System.currentTimeMillis();
+        Map<String, Long> cursors = new TreeMap<>();
+        for (KVEntry entry : entries) {
+            byte[] value = entry.getValue();
+            if (ttlMs > 0 && (value.length < 16 || now - Bits.getLong(value, 8) > ttlMs)) {
+                continue;
+            }
+            cursors.put(BytesUtil.readUtf8(entry.getKey()).substring(CURSOR_KEY_PREFIX.length()),
+                    PackKeys.bytesToLong(value));
+        }
+        return cursors;
+    }
+
+    private long loadCursor() {
+        return loadCursor(rheaKVStore, cursorKey, name);
+    }
+
+    /**
+     * 读取保存的游标, 没有游标或者游标在清理线之前时从清理线开始, 不去扫描已经删除的范围
+     */
+    static long loadCursor(RheaKVStore rheaKVStore, byte[] cursorKey, String name) {
+        byte[] bytes = rheaKVStore.bGet(cursorKey);
+        long floor = PackRetention.loadFloor(rheaKVStore);
+        if (ArrayUtils.isEmpty(bytes)) {
+            return floor;
+        }
+        long cursor = PackKeys.bytesToLong(bytes);
+        if (cursor < floor) {
+            log.warn("[PackSubscriber] {} cursor {} is behind retention floor {}, packs in between were deleted",
+                    name, cursor, floor);
+            return floor;
+        }
+        return cursor;
+    }
+
+    private void commitCursor() {
+        rheaKVStore.put(cursorKey, cursorValue(cursor));
+    }
+}
@@ -0,0 +1,170 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.exception.CodecException;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import com.alipay.sofa.jraft.util.NamedThreadFactory;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将StrsPack写入KVStore
+ * 1.包内容和所在分片的下一个PacketNo放在同一个batch put里, 同属一个region, 作为一条Raft日志提交, 两者要么都成功要么都失败
+ * 2.写入是异步的, 不对每个批次join, 用信号量限制同时在途的批次数量
+ * 3.提交失败时按retryBackoffMs翻倍退避重试, 最多maxRetries次, 重试期间仍占着在途名额;
+ *   重试总时长要远小于订阅者的gapTimeoutMs, 否则补上的包已经被订阅者当作缺号跳过
+ * 4.每次失败计入failures{stage=commit}, 重试用完仍失败的包计入failures{stage=drop}, 这个packNo会成为缺号;
+ *   日志每秒最多打一条, 避免故障切换时大量日志拖慢写入
+ * 5.配置了组播时, 提交成功的包马上组播给订阅者
+ */
+@Slf4j
+public class PackWriter {
+
+    private final RheaKVStore rheaKVStore;
+
+    private final BodyCodec bodyCodec;
+
+    private final PackKeys packKeys;
+
+    private final int maxInFlight;
+
+    private final Semaphore inFlightPermits;
+
+    private final PackMetrics metrics;
+
+    private final RateLimiter errorLogLimiter = RateLimiter.create(1);
+
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("pack-writer-retry-", true));
+
+    /**
+     * 提交失败后最多重试的次数, 0表示不重试
+     */
+    @Setter
+    private int maxRetries = 3;
+
+    /**
+     * 第一次重试前的等待时间, 之后每次翻倍
+     */
+    @Setter
+    private long retryBackoffMs = 50;
+
+    /**
+     * 提交成功后把包组播给订阅者, 为null时不组播
+     */
+    @Setter
+    private volatile PackMulticaster multicaster;
+
+    public PackWriter(RheaKVStore rheaKVStore, BodyCodec bodyCodec, PackKeys packKeys, int maxInFlight) {
+        this(rheaKVStore, bodyCodec, packKeys, maxInFlight, PackMetrics.noop());
+    }
+
+    public PackWriter(RheaKVStore rheaKVStore, BodyCodec bodyCodec, PackKeys packKeys, int maxInFlight,
+                      PackMetrics metrics) {
+        this.rheaKVStore = rheaKVStore;
+        this.bodyCodec = bodyCodec;
+        this.packKeys = packKeys;
+        this.maxInFlight = maxInFlight;
+        this.inFlightPermits = new Semaphore(maxInFlight);
+        this.metrics = metrics;
+        metrics.bindWriter(this);
+    }
+
+    /**
+     * 异步写入一个包, 在途批次已满时阻塞等待
+     *
+     * @param strsPack 要写入的包
+     * @return Raft提交完成后结束的future
+     */
+    public CompletableFuture<Boolean> write(StrsPack strsPack) throws CodecException, InterruptedException {
+        long packNo = strsPack.getPackNo();
+        long serializeStart = System.nanoTime();
+        final byte[] value;
+        try {
+            value = bodyCodec.serialize(strsPack);
+        } catch (CodecException e) {
+            metrics.failures("serialize").increment();
+            throw e;
+        }
+        PackMetrics.record(metrics.getSerializeTimer(), serializeStart);
+        metrics.getPackStrs().record(strsPack.getStrs() == null ? 0 : strsPack.getStrs().size());
+        metrics.getPackBytes().record(value.length);
+        List<KVEntry> entries = Lists.newArrayList(
+                new KVEntry(packKeys.packKey(packNo), value),
+                new KVEntry(packKeys.packNoKey(packKeys.shardOf(packNo)), PackKeys.longToBytes(packNo + 1)));
+
+        inFlightPermits.acquire();
+        long commitStart = System.nanoTime();
+        final CompletableFuture<Boolean> future;
+        try {
+            future = rheaKVStore.put(entries);
+        } catch (RuntimeException e) {
+            inFlightPermits.release();
+            throw e;
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        onCommit(future, packNo, entries, value, 0, commitStart, result);
+        return result;
+    }
+
+    /**
+     * 处理一次提交的结果, 失败时退避后重试, 成功或者重试用完后才释放在途名额
+     */
+    private void onCommit(CompletableFuture<Boolean> future, long packNo, List<KVEntry> entries, byte[] value,
+                          int attempt, long commitStart, CompletableFuture<Boolean> result) {
+        future.whenComplete((success, e) -> {
+            if (e == null && Boolean.TRUE.equals(success)) {
+                inFlightPermits.release();
+                PackMetrics.record(metrics.getCommitTimer(), commitStart);
+                metrics.packCommitted(packNo);
+                PackMulticaster currentMulticaster = multicaster;
+                if (currentMulticaster != null) {
+                    currentMulticaster.publish(packNo, value);
+                }
+                result.complete(true);
+                return;
+            }
+            metrics.failures("commit").increment();
+            if (attempt < maxRetries) {
+                retryScheduler.schedule(() -> {
+                    CompletableFuture<Boolean> retry;
+                    try {
+                        retry = rheaKVStore.put(entries);
+                    } catch (RuntimeException re) {
+                        retry = new CompletableFuture<>();
+                        retry.completeExceptionally(re);
+                    }
+                    onCommit(retry, packNo, entries, value, attempt + 1, commitStart, result);
+                }, retryBackoffMs << attempt, TimeUnit.MILLISECONDS);
+                return;
+            }
+            inFlightPermits.release();
+            PackMetrics.record(metrics.getCommitTimer(), commitStart);
+            metrics.failures("drop").increment();
+            if (errorLogLimiter.tryAcquire()) {
+                log.error("[PackWriter] write pack {} failed after {} attempts", packNo, attempt + 1, e);
+            }
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(false);
+            }
+        });
+    }
+
+    /**
+     * @return 当前在途(已提交给Raft但未完成)的批次数量
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlightPermits.availablePermits();
+    }
+}
@@ -0,0 +1,214 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.exception.CodecException;
+import com.alipay.sofa.jraft.util.Bits;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import lombok.Getter;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在BodyCodec边界上压缩编码后的数据
+ * 压缩后的格式为 [headroom][原始长度 int][压缩数据], headroom留给外层写版本字节
+ * 1.小于minBytes的数据不压缩, 压缩后没有变小的也不压缩
+ * 2.Zstd可以使用训练好的字典, 对大量短小且重复的字符串效果明显; 字典一旦用于写入就不能再更换, 否则旧数据无法解压
+ * 3.统计原始字节数、压缩后字节数和压缩/解压耗时
+ */
+public class PayloadCompressor {
+
+    private static final int ZSTD_LEVEL = 3;
+
+    /**
+     * 解压时原始长度的上限, 头部被写坏时抛CodecException, 而不是按错误的长度分配数组
+     */
+    static final int MAX_RAW_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * 线程内复用的压缩缓冲区超过这个长度就不再保留, 避免偶尔的大包长期占用内存
+     */
+    private static final int MAX_SCRATCH_BYTES = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    @Getter
+    private final CompressionType type;
+
+    private final int minBytes;
+
+    private final LZ4Compressor lz4Compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+    private final LZ4FastDecompressor lz4Decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final ZstdDictCompress zstdDictCompress;
+
+    private final ZstdDictDecompress zstdDictDecompress;
+
+    /**
+     * 参与压缩的原始字节数
+     */
+    @Getter
+    private final AtomicLong rawBytes = new AtomicLong();
+
+    /**
+     * 压缩后的字节数
+     */
+    @Getter
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    /**
+     * 因为太小或压缩无收益而跳过压缩的次数
+     */
+    @Getter
+    private final AtomicLong skipped = new AtomicLong();
+
+    @Getter
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    @Getter
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    /**
+     * @param type       写入时使用的压缩方式, 读取时按版本字节选择
+     * @param minBytes   小于这个长度的数据不压缩
+     * @param dictionary Zstd字典, 可以为null
+     */
+    public PayloadCompressor(CompressionType type, int minBytes, byte[] dictionary) {
+        this.type = type;
+        this.minBytes = minBytes;
+        this.zstdDictCompress = dictionary == null ? null : new ZstdDictCompress(dictionary, ZSTD_LEVEL);
+        this.zstdDictDecompress = dictionary == null ? null : new ZstdDictDecompress(dictionary);
+    }
+
+    public static PayloadCompressor none() {
+        return new PayloadCompressor(CompressionType.NONE, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * 用样本数据训练Zstd字典
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int dictSize) {
+        int totalSize = 0;
+        for (byte[] sample : samples) {
+            totalSize += sample.length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer(totalSize, dictSize);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        return trainer.trainSamples();
+    }
+
+    /**
+     * 压缩 src[offset, offset + length)
+     *
+     * @return 压缩后的数据, 前面预留headroom个字节; 不需要压缩时返回null
+     */
+    public byte[] compress(byte[] src, int offset, int length, int headroom) {
+        if (type == CompressionType.NONE || length < minBytes) {
+            skipped.incrementAndGet();
+            return null;
+        }
+        long start = System.nanoTime();
+        int dataOffset = headroom + 4;
+        //先压缩到线程内复用的缓冲区, 确认有收益后只按实际长度分配一次结果
+        byte[] dest;
+        int compressedLength;
+        if (type == CompressionType.LZ4) {
+            dest = scratch(dataOffset + lz4Compressor.maxCompressedLength(length));
+            compressedLength = lz4Compressor.compress(src, offset, length, dest, dataOffset, dest.length - dataOffset);
+        } else {
+            dest = scratch(dataOffset + (int) Zstd.compressBound(length));
+            long result = zstdDictCompress != null
+                    ? Zstd.compressFastDict(dest, dataOffset, src, offset, length, zstdDictCompress)
+                    : Zstd.compressByteArray(dest, dataOffset, dest.length - dataOffset, src, offset, length, ZSTD_LEVEL);
+            if (Zstd.isError(result)) {
+                skipped.incrementAndGet();
+                return null;
+            }
+            compressedLength = (int) result;
+        }
+        compressNanos.addAndGet(System.nanoTime() - start);
+
+        if (dataOffset + compressedLength >= headroom + length) {
+            //压缩没有收益
+            skipped.incrementAndGet();
+            return null;
+        }
+        rawBytes.addAndGet(length);
+        compressedBytes.addAndGet(compressedLength);
+        byte[] result = new byte[dataOffset + compressedLength];
+        Bits.putInt(result, headroom, length);
+        System.arraycopy(dest, dataOffset, result, dataOffset, compressedLength);
+        return result;
+    }
+
+    /**
+     * @return 至少size个字节的缓冲区, 内容不确定
+     */
+    private static byte[] scratch(int size) {
+        byte[] buf = SCRATCH.get();
+        if (buf.length >= size) {
+            return buf;
+        }
+        buf = new byte[size];
+        if (size <= MAX_SCRATCH_BYTES) {
+            SCRATCH.set(buf);
+        }
+        return buf;
+    }
+
+    /**
+     * 解压 src[offset, offset + length), 格式为 [原始长度 int][压缩数据]
+     */
+    public byte[] decompress(CompressionType compression, byte[] src, int offset, int length) throws CodecException {
+        long start = System.nanoTime();
+        if (length < 4) {
+            throw new CodecException("compressed data too short: " + length);
+        }
+        int rawLength = Bits.getInt(src, offset);
+        if (rawLength < 0 || rawLength > MAX_RAW_BYTES) {
+            throw new CodecException("invalid raw length: " + rawLength);
+        }
+        byte[] dest = new byte[rawLength];
+        try {
+            if (compression == CompressionType.LZ4) {
+                lz4Decompressor.decompress(src, offset + 4, dest, 0, rawLength);
+            } else if (compression == CompressionType.ZSTD) {
+                long result = zstdDictDecompress != null
+                        ? Zstd.decompressFastDict(dest, 0, src, offset + 4, length - 4, zstdDictDecompress)
+                        : Zstd.decompressByteArray(dest, 0, rawLength, src, offset + 4, length - 4);
+                if (Zstd.isError(result)) {
+                    throw new CodecException("zstd decompress error: " + Zstd.getErrorName(result));
+                }
+            } else {
+                throw new CodecException("unknown compression: " + compression);
+            }
+        } catch (RuntimeException e) {
+            throw new CodecException("decompress error", e);
+        }
+        decompressNanos.addAndGet(System.nanoTime() - start);
+        return dest;
+    }
+
+    /**
+     * 压缩率, 压缩后字节数 / 原始字节数
+     */
+    public double getRatio() {
+        long raw = rawBytes.get();
+        return raw == 0 ? 1.0 : (double) compressedBytes.get() / raw;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PayloadCompressor(type=%s, rawBytes=%d, compressedBytes=%d, ratio=%.3f, skipped=%d, compressMs=%d, decompressMs=%d)",
+                type, rawBytes.get(), compressedBytes.get(), getRatio(), skipped.get(),
+                compressNanos.get() / 1_000_000, decompressNanos.get() / 1_000_000);
+    }
+}
@@ -0,0 +1,44 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.option.ReadOnlyOption;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 读取端的一致性级别
+ * ReadIndex怎么确认leader身份由节点的readonlyoption决定, 整个集群只有一种, 客户端不能按请求选择;
+ * 读取端启动时用ClusterMeta.checkReadConsistency校验集群的readonlyoption, 不匹配时直接失败, 不会悄悄降级
+ */
+@Getter
+@AllArgsConstructor
+public enum ReadConsistency {
+
+    /**
+     * 只读leader, 每次读都走ReadIndex, leader要先和多数派确认自己仍是leader
+     * 要求节点配置 readonlyoption=ReadOnlySafe, 开了租约时leader不再确认, 就不是线性一致读了
+     */
+    LINEARIZABLE(true, ReadOnlyOption.ReadOnlySafe),
+
+    /**
+     * 只读leader, leader在租约内直接确认ReadIndex, 省掉一轮心跳
+     * 要求节点配置 readonlyoption=ReadOnlyLeaseBased, 正确性依赖各节点的时钟漂移小于租约的余量
+     */
+    LEASE_READ(true, ReadOnlyOption.ReadOnlyLeaseBased),
+
+    /**
+     * 读请求随机发给region内的任意节点, 由follower读本地状态返回, leader不再承担读流量
+     * 落后有上限: 每隔maxStalenessMs用ReadIndex读一次已提交水位, follower的结果没有覆盖到水位时改用ReadIndex重读,
+     * 投递出去的结果最多落后maxStalenessMs(加一次ReadIndex的耗时), 见StalenessBound; 订阅者按packNo顺序和缺号规则处理, 不会乱序
+     */
+    FOLLOWER_READ(false, null);
+
+    /**
+     * 是否只把读请求发给leader, 对应RheaKVStoreOptions.onlyLeaderRead
+     */
+    private final boolean onlyLeaderRead;
+
+    /**
+     * 要求节点配置的readonlyoption, null表示不要求
+     */
+    private final ReadOnlyOption requiredReadOnlyOption;
+}
@@ -1,66 +1,70 @@
 package com.weilai.rheadkv;
 
-import com.alipay.remoting.exception.CodecException;
 import com.alipay.sofa.jraft.rhea.client.DefaultRheaKVStore;
 import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
 import com.alipay.sofa.jraft.rhea.options.PlacementDriverOptions;
 import com.alipay.sofa.jraft.rhea.options.RegionRouteTableOptions;
 import com.alipay.sofa.jraft.rhea.options.RheaKVStoreOptions;
-import com.alipay.sofa.jraft.rhea.options.configured.MultiRegionRouteTableOptionsConfigured;
 import com.alipay.sofa.jraft.rhea.options.configured.PlacementDriverOptionsConfigured;
 import com.alipay.sofa.jraft.rhea.options.configured.RheaKVStoreOptionsConfigured;
-import com.alipay.sofa.jraft.rhea.storage.KVEntry;
-import com.alipay.sofa.jraft.util.Bits;
-import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang.ArrayUtils;
-import org.springframework.util.CollectionUtils;
 
+import java.nio.file.Paths;
 import java.util.List;
 
 @Slf4j
 public class ReadStartup {
     private static RheaKVStore rheaKVStore = new DefaultRheaKVStore();
-    private static BodyCodec bodyCodec = new BodyCodec();
-    private static int packNo = -1;
+    //读取时按值里的版本字节选择解码器和解压方式, 这里的codec和压缩方式只影响写入
+    //节点配置了Zstd字典时, 这里必须传入同一个字典, 否则无法解压
+    private static BodyCodec bodyCodec = new VersionedBodyCodec(CodecType.HESSIAN2, PayloadCompressor.none());
+    //启动时从集群读取regioncount
+    private static PackKeys packKeys;
+    //只读消费者从follower读取, 减轻leader的读压力
+    private static ReadConsistency readConsistency = ReadConsistency.FOLLOWER_READ;
 
-    public static void main(String[] args) throws CodecException, InterruptedException {
+    public static void main(String[] args) throws Exception {
         String seqUrlList = "127.0.0.1:8891,127.0.0.1:8892,127.0.0.1:8893";
-        final List<RegionRouteTableOptions> regionRouteTableOptions = MultiRegionRouteTableOptionsConfigured.newConfigured()
-                .withInitialServerList(-1L, seqUrlList)
-                .config();
+        packKeys = ClusterMeta.loadPackKeys(seqUrlList);
+        final List<RegionRouteTableOptions> regionRouteTableOptions =
+                RegionLayout.routeTableOptions(packKeys.getRegionCount(), seqUrlList);
         final PlacementDriverOptions pdOptions = PlacementDriverOptionsConfigured.newConfigured()
                 .withFake(true)
                 .withRegionRouteTableOptionsList(regionRouteTableOptions)
                 .config();
         final RheaKVStoreOptions options = RheaKVStoreOptionsConfigured.newConfigured()
                 .withPlacementDriverOptions(pdOptions)
+                .withOnlyLeaderRead(readConsistency.isOnlyLeaderRead())
                 .config();
         rheaKVStore.init(options);
+        ClusterMeta.checkReadConsistency(rheaKVStore, readConsistency);
 
-        while (true) {
-            Thread.sleep(100);
-            //主动抓取数据
-            byte[] firstKey = new byte[8];
-            Bits.putLong(firstKey, 0, packNo + 1);   //(firstKey included)
-            byte[] lastKey = new byte[8];
-            Bits.putLong(lastKey, 0, packNo + 2);     //(lastKey excluded)
-
-            final List<KVEntry> kvEntries = rheaKVStore.bScan(firstKey, lastKey);
-            log.info("kvEntries {}", kvEntries);
-
-            if (!CollectionUtils.isEmpty(kvEntries)) {
-                List<StrsPack> collect = Lists.newArrayList();
-                for (KVEntry entry : kvEntries) {
-                    byte[] value = entry.getValue();
-                    if (ArrayUtils.isNotEmpty(value)) {
-                        StrsPack strsPack = bodyCodec.deserialize(value, StrsPack.class);
-                        log.info("strsPack = {}", strsPack.toString());
-                        collect.add(strsPack);
-                    }
+        //订阅数据, 追赶时按页批量扫描, 追上后按退避间隔轮询, 各region的分片合并后按packNo顺序投递
+        //每批只打一条日志, 逐包打日志会拖慢追赶
+        PackSubscriber subscriber = new PackSubscriber(rheaKVStore, bodyCodec, packKeys, "read-startup", packs -> {
+            if (!packs.isEmpty()) {
+                log.info("received {} packs, last packNo = {}", packs.size(), packs.get(packs.size() - 1).getPackNo());
+            }
+            if (log.isDebugEnabled()) {
+                for (StrsPack strsPack : packs) {
+                    log.debug("strsPack = {}", strsPack);
                 }
             }
-            packNo++;
+        });
+        subscriber.setReadConsistency(readConsistency);
+        //第一个参数是PackExporter导出的文件时, 先从文件追赶再订阅
+        if (args.length > 0) {
+            subscriber.start(Paths.get(args[0]));
+        } else {
+            subscriber.start();
         }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                subscriber.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Thread.currentThread().join();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.options.RegionEngineOptions;
+import com.alipay.sofa.jraft.rhea.options.RegionRouteTableOptions;
+import com.alipay.sofa.jraft.rhea.options.configured.MultiRegionEngineOptionsConfigured;
+import com.alipay.sofa.jraft.rhea.options.configured.MultiRegionRouteTableOptionsConfigured;
+import com.alipay.sofa.jraft.util.BytesUtil;
+
+import java.util.List;
+
+/**
+ * 按PackKeys的分片规则切分region
+ * 分片shard对应regionId = shard + 1, key范围为 [shard, shard + 1), 第一个region没有下界, 最后一个region没有上界
+ * 不同region的leader可以分布在不同节点上, 写入在多个Raft组里并行提交
+ */
+public final class RegionLayout {
+
+    /**
+     * 排队机跟随这个region的leader运行
+     */
+    public static final long SEQUENCER_REGION_ID = 1L;
+
+    private RegionLayout() {
+    }
+
+    public static long regionIdOf(int shard) {
+        return shard + 1;
+    }
+
+    /**
+     * 节点(store)上要启动的region
+     */
+    public static List<RegionEngineOptions> regionEngineOptions(int regionCount) {
+        final MultiRegionEngineOptionsConfigured configured = MultiRegionEngineOptionsConfigured.newConfigured();
+        for (int shard = 0; shard < regionCount; shard++) {
+            long regionId = regionIdOf(shard);
+            configured.withStartKeyBytes(regionId, shard == 0 ? BytesUtil.EMPTY_BYTES : PackKeys.shardStartKey(shard));
+            if (shard < regionCount - 1) {
+                configured.withEndKeyBytes(regionId, PackKeys.shardStartKey(shard + 1));
+            }
+        }
+        return configured.config();
+    }
+
+    /**
+     * 客户端的路由表, 按key找到所属的region再发给该region的leader
+     */
+    public static List<RegionRouteTableOptions> routeTableOptions(int regionCount, String serverList) {
+        final MultiRegionRouteTableOptionsConfigured configured = MultiRegionRouteTableOptionsConfigured.newConfigured();
+        for (int shard = 0; shard < regionCount; shard++) {
+            long regionId = regionIdOf(shard);
+            configured.withInitialServerList(regionId, serverList);
+            configured.withStartKeyBytes(regionId, shard == 0 ? BytesUtil.EMPTY_BYTES : PackKeys.shardStartKey(shard));
+            if (shard < regionCount - 1) {
+                configured.withEndKeyBytes(regionId, PackKeys.shardStartKey(shard + 1));
+            }
+        }
+        return configured.config();
+    }
+}
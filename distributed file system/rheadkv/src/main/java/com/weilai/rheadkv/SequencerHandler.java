@@ -0,0 +1,210 @@
+package com.weilai.rheadkv;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.TimeoutHandler;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排队机的唯一消费者, 只在一个线程里运行, 所以不需要加锁
+ * 1.为每个包分配packNo(按号段在本地分配)
+ * 2.攒够packBatchSize条或者距离第一条超过packFlushMs就打成一个StrsPack
+ * 3.交给PackWriter异步写入Raft, 提交完成后通知包里所有生产者(group commit), 一个包只占一条Raft日志
+ * 4.按producerId和seq去重: 生产者超时重发的批次不会再入库一次, 等第一次的包提交后回复同一个packNo
+ *   去重记录只在当前leader的内存里, 最多保留DEDUP_CAPACITY个批次; leader切换后新leader没有这些记录,
+ *   旧leader已提交但没来得及回复的批次会被重发入库, 所以跨leader切换仍然是至少一次(at-least-once)
+ */
+@Slf4j
+public class SequencerHandler implements EventHandler<StrEvent>, TimeoutHandler {
+
+    private final NodeConfig nodeConfig;
+
+    private final int batchSize;
+
+    private final long flushIntervalNanos;
+
+    private List<String> batch;
+
+    /**
+     * 当前批次里等待packNo的生产者
+     */
+    private List<CompletableFuture<Long>> acks = Lists.newArrayList();
+
+    /**
+     * 当前批次第一条数据到达的时间
+     */
+    private long batchStartNanos;
+
+    private final PackNoAllocator packNoAllocator;
+
+    /**
+     * 已经写入集群配置的任期
+     */
+    private long checkedTerm = -1;
+
+    private final RateLimiter dropLogLimiter = RateLimiter.create(1);
+
+    private static final int DEDUP_CAPACITY = 1 << 16;
+
+    /**
+     * 最近的批次 producerId:seq -> 所在包的ack, 按到达顺序淘汰最早的记录
+     */
+    private final Map<String, CompletableFuture<Long>> recentBatches =
+            new LinkedHashMap<String, CompletableFuture<Long>>(DEDUP_CAPACITY * 4 / 3 + 1) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Long>> eldest) {
+                    return size() > DEDUP_CAPACITY;
+                }
+            };
+
+    private final Counter duplicates;
+
+    public SequencerHandler(NodeConfig nodeConfig) {
+        this.nodeConfig = nodeConfig;
+        this.batchSize = nodeConfig.getPackBatchSize();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(nodeConfig.getPackFlushMs());
+        this.batch = Lists.newArrayListWithCapacity(batchSize);
+        this.packNoAllocator = new PackNoAllocator(nodeConfig.getNode().getRheaKVStore(),
+                nodeConfig.getPackKeys(), nodeConfig.getPackNoBlockSize());
+        this.duplicates = nodeConfig.getMetrics().getRegistry().counter("rheadkv.ingest.duplicates");
+    }
+
+    @Override
+    public void onEvent(StrEvent event, long sequence, boolean endOfBatch) {
+        if (!isDuplicate(event)) {
+            append(event);
+        }
+        //释放槽位对字符串的引用
+        event.setStr(null);
+        event.setStrs(null);
+        event.setAck(null);
+        event.setProducerId(null);
+
+        if (!batch.isEmpty() && (batch.size() >= batchSize || (endOfBatch && isFlushTimeReached()))) {
+            flush();
+        }
+    }
+
+    private void append(StrEvent event) {
+        List<String> strs = event.getStrs();
+        //一批数据不拆包, 放不下时先把当前批次打包, 包的大小最多是packBatchSize条
+        if (strs != null && !batch.isEmpty() && batch.size() + strs.size() > batchSize) {
+            flush();
+        }
+        if (batch.isEmpty()) {
+            batchStartNanos = System.nanoTime();
+        }
+        if (strs != null) {
+            batch.addAll(strs);
+        } else {
+            batch.add(event.getStr());
+        }
+        if (event.getAck() != null) {
+            acks.add(event.getAck());
+        }
+    }
+
+    /**
+     * 同一个producerId:seq已经在处理中或已经提交时, 不再入库, 等第一次的结果回复
+     * 第一次失败了(例如写入失败)就当作新批次重新入库
+     */
+    private boolean isDuplicate(StrEvent event) {
+        if (event.getProducerId() == null) {
+            return false;
+        }
+        String key = event.getProducerId() + ":" + event.getSeq();
+        CompletableFuture<Long> previous = recentBatches.get(key);
+        if (previous != null && !previous.isCompletedExceptionally()) {
+            duplicates.increment();
+            CompletableFuture<Long> ack = event.getAck();
+            if (ack != null) {
+                previous.whenComplete((packNo, e) -> {
+                    if (e == null) {
+                        ack.complete(packNo);
+                    } else {
+                        ack.completeExceptionally(e);
+                    }
+                });
+            }
+            return true;
+        }
+        recentBatches.put(key, event.getAck() != null ? event.getAck() : new CompletableFuture<>());
+        return false;
+    }
+
+    /**
+     * RingBuffer里一段时间没有新数据时由TimeoutBlockingWaitStrategy触发, 保证零散的数据也能按时打包
+     */
+    @Override
+    public void onTimeout(long sequence) {
+        if (!batch.isEmpty() && isFlushTimeReached()) {
+            flush();
+        }
+    }
+
+    private boolean isFlushTimeReached() {
+        return System.nanoTime() - batchStartNanos >= flushIntervalNanos;
+    }
+
+    private void flush() {
+        List<String> strs = batch;
+        batch = Lists.newArrayListWithCapacity(batchSize);
+        List<CompletableFuture<Long>> batchAcks = acks;
+        acks = Lists.newArrayList();
+
+        //只有主节点写入数据
+        Node node = nodeConfig.getNode();
+        if (!node.isLeader()) {
+            nodeConfig.getMetrics().failures("sequence").increment();
+            if (dropLogLimiter.tryAcquire()) {
+                log.warn("[SequencerHandler] not leader, drop {} strs", strs.size());
+            }
+            fail(batchAcks, new IllegalStateException("not leader"));
+            return;
+        }
+
+        try {
+            long term = node.getLeaderTerm().get();
+            if (term != checkedTerm) {
+                //regioncount和集群不一致时包会写到错误的分片, 拒绝写入
+                ClusterMeta.publish(node.getRheaKVStore(), nodeConfig.getRegionCount(), nodeConfig.getReadOnlyOption());
+                checkedTerm = term;
+            }
+            //号段用完或任期变化时才会访问KVStore
+            long packNo = packNoAllocator.next(term);
+
+            StrsPack strsPack = new StrsPack(packNo, strs);
+            //入库,包内容和PackNo++在同一批次里异步提交, 不等待结果
+            CompletableFuture<Boolean> future = nodeConfig.getPackWriter().write(strsPack);
+            if (!batchAcks.isEmpty()) {
+                future.whenComplete((success, e) -> {
+                    if (e == null && Boolean.TRUE.equals(success)) {
+                        batchAcks.forEach(ack -> ack.complete(packNo));
+                    } else {
+                        fail(batchAcks, e != null ? e : new IllegalStateException("write pack " + packNo + " failed"));
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            fail(batchAcks, e);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            fail(batchAcks, e);
+            //不能把异常抛给Disruptor, 否则消费线程会退出
+            nodeConfig.getMetrics().failures("sequence").increment();
+            log.error("[SequencerHandler] write pack error ", e);
+        }
+    }
+
+    private static void fail(List<CompletableFuture<Long>> acks, Throwable e) {
+        acks.forEach(ack -> ack.completeExceptionally(e));
+    }
+}
@@ -0,0 +1,63 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import org.apache.commons.lang.ArrayUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FOLLOWER_READ的落后上限, PackSubscriber和AsyncPackReader共用
+ * 1.每隔maxStalenessMs用ReadIndex读一次各分片的PacketNo, 取最大值作为水位, 水位之前的包在读水位那一刻都已提交
+ * 2.follower返回的 [from, to) 从from开始连续的部分没有覆盖到 min(to, 水位) 时, 说明这个follower还没追上水位,
+ *   不用它的结果, 改用ReadIndex重读这个范围
+ * 3.所以投递出去的结果至少包含 maxStalenessMs 加一次ReadIndex耗时之前已提交的所有包;
+ *   ReadIndex重读后仍然缺的号是真正的缺号, 按PackGaps处理
+ * 不是线程安全的, 只在订阅者自己的线程里调用watermark
+ */
+class StalenessBound {
+
+    private final RheaKVStore rheaKVStore;
+
+    private final PackKeys packKeys;
+
+    private final long maxStalenessNanos;
+
+    private long watermark;
+
+    /**
+     * 上次读水位的时间, 以发出请求的时间为准
+     */
+    private long watermarkNanos;
+
+    StalenessBound(RheaKVStore rheaKVStore, PackKeys packKeys, long maxStalenessMs) {
+        this.rheaKVStore = rheaKVStore;
+        this.packKeys = packKeys;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMs);
+    }
+
+    /**
+     * @return 不早于maxStalenessMs之前的已提交水位, 过期时先用ReadIndex重新读取
+     */
+    long watermark() {
+        long now = System.nanoTime();
+        if (watermarkNanos == 0 || now - watermarkNanos > maxStalenessNanos) {
+            long committed = 0;
+            for (byte[] value : rheaKVStore.bMultiGet(packKeys.packNoKeys(), true).values()) {
+                if (ArrayUtils.isNotEmpty(value)) {
+                    committed = Math.max(committed, PackKeys.bytesToLong(value));
+                }
+            }
+            watermark = committed;
+            watermarkNanos = now;
+        }
+        return watermark;
+    }
+
+    /**
+     * @param contiguousEnd follower返回的结果从from开始连续到的位置(不包含)
+     * @return follower的结果是否满足落后上限
+     */
+    static boolean covers(long contiguousEnd, long to, long watermark) {
+        return contiguousEnd >= Math.min(to, watermark);
+    }
+}
@@ -0,0 +1,117 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.storage.StorageType;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * 对比Memory和RocksDB两种存储引擎
+ * 单节点集群, 相同的写入负载, 统计: 写入吞吐、写完后的堆内存占用、重启到可读的耗时
+ * 运行参数: [包数量, 默认100000] [每个包的字符串数, 默认100]
+ */
+@Slf4j
+public class StorageBenchmark {
+
+    private static final String SERVE_URL = "127.0.0.1:18891";
+
+    private static final long LEADER_TIMEOUT_MS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        int packCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int strsPerPack = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        List<String> results = Lists.newArrayList();
+        for (StorageType storageType : new StorageType[]{StorageType.Memory, StorageType.RocksDB}) {
+            results.add(run(storageType, packCount, strsPerPack));
+        }
+        log.info("[StorageBenchmark] storage   packs/s   heapUsedMB   restartMs");
+        results.forEach(result -> log.info("[StorageBenchmark] {}", result));
+        System.exit(0);
+    }
+
+    private static String run(StorageType storageType, int packCount, int strsPerPack) throws Exception {
+        Path dataDir = Files.createTempDirectory("rheadkv-bench-" + storageType);
+        try {
+            long heapBefore = usedHeap();
+
+            NodeConfig nodeConfig = startNode(storageType, dataDir);
+            List<String> strs = Lists.newArrayListWithCapacity(strsPerPack);
+            for (int i = 0; i < strsPerPack; i++) {
+                strs.add("benchmark-str-" + i);
+            }
+
+            long start = System.nanoTime();
+            CompletableFuture<Boolean> last = null;
+            for (long packNo = 0; packNo < packCount; packNo++) {
+                last = nodeConfig.getPackWriter().write(new StrsPack(packNo, strs));
+            }
+            if (last != null) {
+                last.join();
+            }
+            //等待所有在途写入完成
+            while (nodeConfig.getPackWriter().getInFlight() > 0) {
+                Thread.sleep(1);
+            }
+            double packsPerSec = packCount / ((System.nanoTime() - start) / 1e9);
+            long heapUsedMb = (usedHeap() - heapBefore) / 1024 / 1024;
+            nodeConfig.getNode().stop();
+
+            //重启: Memory需要重放Raft日志, RocksDB直接打开已有数据
+            long restartStart = System.nanoTime();
+            nodeConfig = startNode(storageType, dataDir);
+            byte[] lastPack = nodeConfig.getNode().getRheaKVStore().bGet(nodeConfig.getPackKeys().packKey(packCount - 1));
+            long restartMs = (System.nanoTime() - restartStart) / 1_000_000;
+            if (lastPack == null) {
+                log.error("[StorageBenchmark] {} lost pack {} after restart", storageType, packCount - 1);
+            }
+            nodeConfig.getNode().stop();
+
+            return String.format("%-9s %8.0f %12d %11d", storageType, packsPerSec, heapUsedMb, restartMs);
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    private static NodeConfig startNode(StorageType storageType, Path dataDir) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("datapath", dataDir.toString());
+        properties.setProperty("serveurl", SERVE_URL);
+        properties.setProperty("serverlist", SERVE_URL);
+        properties.setProperty("storagetype", storageType.name());
+
+        NodeConfig nodeConfig = new NodeConfig("benchmark");
+        nodeConfig.initConfig(properties);
+        nodeConfig.startSeqDbCluster();
+
+        long deadline = System.currentTimeMillis() + LEADER_TIMEOUT_MS;
+        while (!nodeConfig.getNode().isLeader()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("no leader elected in " + LEADER_TIMEOUT_MS + " ms");
+            }
+            Thread.sleep(10);
+        }
+        return nodeConfig;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
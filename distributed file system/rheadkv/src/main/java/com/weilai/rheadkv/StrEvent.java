@@ -0,0 +1,31 @@
+package com.weilai.rheadkv;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * RingBuffer里的槽位, 由EventFactory预先分配, 生产者只负责填充
+ */
+@Data
+public class StrEvent {
+    private String str;
+
+    /**
+     * 生产者一次提交的一批字符串, 和str二选一
+     */
+    private List<String> strs;
+
+    /**
+     * 所在的包提交成功后用packNo完成, 失败时异常完成, 可以为null
+     */
+    private CompletableFuture<Long> ack;
+
+    /**
+     * 生产者的去重键, 见IngestRequest, 为null时不去重
+     */
+    private String producerId;
+
+    private long seq;
+}
@@ -0,0 +1,69 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.exception.CodecException;
+import lombok.Getter;
+
+/**
+ * 带版本字节的编码
+ * 值的格式为 [版本字节][编码后的数据], 按集群配置的codec写入, 读取时按第一个字节选择解码器,
+ * 所以切换codec后旧数据仍然可以读取
+ * 版本字节低4位是CodecType.id, 高4位是CompressionType.id, 压缩过的数据格式见PayloadCompressor
+ * 第一个字节不是已知组合时按没有版本字节的Hessian2解码, 兼容加版本字节之前写入的数据
+ * (Hessian2对象的第一个字节是'C'或'O', 高4位是4, 不会和已知组合冲突)
+ */
+public class VersionedBodyCodec implements BodyCodec {
+
+    private final CodecType writeType;
+
+    private final BodyCodec[] codecs = new BodyCodec[CodecType.values().length];
+
+    @Getter
+    private final PayloadCompressor compressor;
+
+    public VersionedBodyCodec(CodecType writeType) {
+        this(writeType, PayloadCompressor.none());
+    }
+
+    public VersionedBodyCodec(CodecType writeType, PayloadCompressor compressor) {
+        this.writeType = writeType;
+        this.compressor = compressor;
+        for (CodecType type : CodecType.values()) {
+            codecs[type.ordinal()] = type.getFactory().get();
+        }
+    }
+
+    @Override
+    public <T> byte[] serialize(T obj) throws CodecException {
+        byte[] bytes = codecs[writeType.ordinal()].serialize(obj, 1);
+        byte[] compressed = compressor.compress(bytes, 1, bytes.length - 1, 1);
+        if (compressed == null) {
+            bytes[0] = writeType.getId();
+            return bytes;
+        }
+        compressed[0] = (byte) (compressor.getType().getId() << 4 | writeType.getId());
+        return compressed;
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
+        return deserialize(bytes, 0, bytes.length, clazz);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, int offset, int length, Class<T> clazz) throws CodecException {
+        if (length == 0) {
+            throw new CodecException("empty value");
+        }
+        byte header = bytes[offset];
+        CodecType type = CodecType.of((byte) (header & 0x0F));
+        CompressionType compression = CompressionType.of((header >> 4) & 0x0F);
+        if (type == null || compression == null) {
+            return codecs[CodecType.HESSIAN2.ordinal()].deserialize(bytes, offset, length, clazz);
+        }
+        if (compression == CompressionType.NONE) {
+            return codecs[type.ordinal()].deserialize(bytes, offset + 1, length - 1, clazz);
+        }
+        byte[] raw = compressor.decompress(compression, bytes, offset + 1, length - 1);
+        return codecs[type.ordinal()].deserialize(raw, 0, raw.length, clazz);
+    }
+}
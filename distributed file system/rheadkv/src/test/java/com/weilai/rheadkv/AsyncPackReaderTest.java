@@ -0,0 +1,75 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncPackReaderTest {
+
+    private final PackKeys packKeys = new PackKeys(3);
+
+    private final BodyCodec bodyCodec = new BodyCodecKryoImpl();
+
+    private void write(RheaKVStore store, long packNo) throws Exception {
+        store.bPut(packKeys.packKey(packNo), bodyCodec.serialize(new StrsPack(packNo, Arrays.asList("str" + packNo))));
+        store.bPut(packKeys.packNoKey(packKeys.shardOf(packNo)), PackKeys.longToBytes(packNo + 1));
+    }
+
+    @Test
+    public void testSkipHoleLongerThanOnePage() throws Exception {
+        RheaKVStore store = MockRheaKVStore.create();
+        // 10~2009是换leader作废的号段, 比一页(100)长得多
+        for (long packNo : new long[]{0, 1, 2, 2010, 2011}) {
+            write(store, packNo);
+        }
+        List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+        AsyncPackReader reader = new AsyncPackReader(store, bodyCodec, packKeys, "test",
+                packs -> packs.forEach(pack -> delivered.add(pack.getPackNo())), 1);
+        reader.setPageSize(100);
+        reader.setGapTimeoutMs(200);
+        reader.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reader.getCursor() < 2012 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        reader.stop();
+
+        assertEquals(Arrays.asList(0L, 1L, 2L, 2010L, 2011L), delivered);
+        assertEquals(2012, reader.getCursor());
+    }
+
+    @Test
+    public void testBackoffWhileWaitingForGap() throws Exception {
+        RheaKVStore store = MockRheaKVStore.create();
+        // 1还没写入, 2已经写入
+        write(store, 0);
+        write(store, 2);
+        AsyncPackReader reader = new AsyncPackReader(store, bodyCodec, packKeys, "test", packs -> {
+        }, 1);
+        reader.setPageSize(100);
+        reader.setGapTimeoutMs(60_000);
+        reader.start();
+        Thread.sleep(1000);
+        reader.stop();
+
+        assertEquals(1, reader.getCursor());
+        // 退避到maxBackoffMs(100ms)之后, 1秒里只会重读十几次, 不会每毫秒一次
+        long reads = 0;
+        for (Invocation invocation : Mockito.mockingDetails(store).getInvocations()) {
+            String method = invocation.getMethod().getName();
+            if (method.equals("scan") || method.equals("multiGet")) {
+                reads++;
+            }
+        }
+        assertTrue(reads < 100, "reads: " + reads);
+    }
+}
@@ -0,0 +1,42 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.option.ReadOnlyOption;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ClusterMetaTest {
+
+    @Test
+    public void testPublishRegionCount() {
+        RheaKVStore store = MockRheaKVStore.create();
+        ClusterMeta.publish(store, 3, ReadOnlyOption.ReadOnlySafe);
+        // 同样的值重复写入(换leader)没有问题
+        ClusterMeta.publish(store, 3, ReadOnlyOption.ReadOnlySafe);
+        assertEquals(3, PackKeys.bytesToLong(store.bGet(PackKeys.regionCountKey())));
+    }
+
+    @Test
+    public void testPublishMismatchedRegionCount() {
+        RheaKVStore store = MockRheaKVStore.create();
+        ClusterMeta.publish(store, 3, ReadOnlyOption.ReadOnlySafe);
+        assertThrows(IllegalStateException.class, () -> ClusterMeta.publish(store, 4, ReadOnlyOption.ReadOnlySafe));
+    }
+
+    @Test
+    public void testCheckReadConsistency() {
+        RheaKVStore store = MockRheaKVStore.create();
+        ClusterMeta.publish(store, 3, ReadOnlyOption.ReadOnlySafe);
+        assertDoesNotThrow(() -> ClusterMeta.checkReadConsistency(store, ReadConsistency.LINEARIZABLE));
+        assertDoesNotThrow(() -> ClusterMeta.checkReadConsistency(store, ReadConsistency.FOLLOWER_READ));
+        assertThrows(IllegalStateException.class, () -> ClusterMeta.checkReadConsistency(store, ReadConsistency.LEASE_READ));
+
+        // 开了租约的集群不能当作线性一致读
+        ClusterMeta.publish(store, 3, ReadOnlyOption.ReadOnlyLeaseBased);
+        assertThrows(IllegalStateException.class, () -> ClusterMeta.checkReadConsistency(store, ReadConsistency.LINEARIZABLE));
+        assertDoesNotThrow(() -> ClusterMeta.checkReadConsistency(store, ReadConsistency.LEASE_READ));
+    }
+}
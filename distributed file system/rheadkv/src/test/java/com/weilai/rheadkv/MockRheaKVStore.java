@@ -0,0 +1,111 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaIterator;
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.rhea.storage.KVEntry;
+import com.alipay.sofa.jraft.rhea.util.ByteArray;
+import com.alipay.sofa.jraft.util.BytesUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用内存Map模拟RheaKVStore, 只实现测试用到的读写方法、scan和iterator, 多个"leader"可以共用同一个store
+ */
+final class MockRheaKVStore {
+
+    private MockRheaKVStore() {
+    }
+
+    static RheaKVStore create() {
+        return create(new ConcurrentHashMap<>());
+    }
+
+    static RheaKVStore create(Map<ByteArray, byte[]> data) {
+        RheaKVStore store = mock(RheaKVStore.class);
+        when(store.bGet(any(byte[].class))).thenAnswer(inv -> data.get(ByteArray.wrap(inv.getArgument(0))));
+        when(store.bPut(any(byte[].class), any(byte[].class))).thenAnswer(inv -> {
+            data.put(ByteArray.wrap(inv.getArgument(0)), inv.getArgument(1));
+            return true;
+        });
+        when(store.bPutIfAbsent(any(byte[].class), any(byte[].class))).thenAnswer(inv -> {
+            synchronized (data) {
+                return data.putIfAbsent(ByteArray.wrap(inv.getArgument(0)), inv.getArgument(1));
+            }
+        });
+        when(store.bCompareAndPut(any(byte[].class), any(byte[].class), any(byte[].class))).thenAnswer(inv -> {
+            synchronized (data) {
+                ByteArray key = ByteArray.wrap(inv.getArgument(0));
+                if (!Arrays.equals(data.get(key), inv.getArgument(1))) {
+                    return false;
+                }
+                data.put(key, inv.getArgument(2));
+                return true;
+            }
+        });
+        when(store.bMultiGet(anyList())).thenAnswer(inv -> get(data, inv.getArgument(0)));
+        when(store.bMultiGet(anyList(), anyBoolean())).thenAnswer(inv -> get(data, inv.getArgument(0)));
+        when(store.put(any(byte[].class), any(byte[].class))).thenAnswer(inv -> {
+            data.put(ByteArray.wrap(inv.getArgument(0)), inv.getArgument(1));
+            return CompletableFuture.completedFuture(true);
+        });
+        when(store.multiGet(anyList(), anyBoolean()))
+                .thenAnswer(inv -> CompletableFuture.completedFuture(get(data, inv.getArgument(0))));
+        when(store.scan(any(byte[].class), any(byte[].class), anyBoolean())).thenAnswer(inv ->
+                CompletableFuture.completedFuture(range(data, inv.getArgument(0), inv.getArgument(1))));
+        when(store.bScan(any(byte[].class), any(byte[].class)))
+                .thenAnswer(inv -> range(data, inv.getArgument(0), inv.getArgument(1)));
+        when(store.iterator(any(byte[].class), any(byte[].class), anyInt())).thenAnswer(inv -> {
+            List<KVEntry> entries = range(data, inv.getArgument(0), inv.getArgument(1));
+            Iterator<KVEntry> iterator = entries.iterator();
+            return new RheaIterator<KVEntry>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public KVEntry next() {
+                    return iterator.next();
+                }
+            };
+        });
+        return store;
+    }
+
+    private static Map<ByteArray, byte[]> get(Map<ByteArray, byte[]> data, List<byte[]> keys) {
+        Map<ByteArray, byte[]> result = new HashMap<>();
+        for (byte[] key : keys) {
+            result.put(ByteArray.wrap(key), data.get(ByteArray.wrap(key)));
+        }
+        return result;
+    }
+
+    /**
+     * [start, end) 范围内的key, 按key排序
+     */
+    private static List<KVEntry> range(Map<ByteArray, byte[]> data, byte[] start, byte[] end) {
+        List<KVEntry> entries = new ArrayList<>();
+        for (Map.Entry<ByteArray, byte[]> entry : data.entrySet()) {
+            byte[] key = entry.getKey().getBytes();
+            if (BytesUtil.compare(key, start) >= 0 && BytesUtil.compare(key, end) < 0) {
+                entries.add(new KVEntry(key, entry.getValue()));
+            }
+        }
+        entries.sort((a, b) -> BytesUtil.compare(a.getKey(), b.getKey()));
+        return entries;
+    }
+}
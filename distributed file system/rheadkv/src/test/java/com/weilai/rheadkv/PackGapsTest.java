@@ -0,0 +1,74 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PackGapsTest {
+
+    private final PackKeys packKeys = new PackKeys(3);
+
+    private void write(RheaKVStore store, long packNo) {
+        store.bPut(packKeys.packKey(packNo), new byte[]{1});
+        store.bPut(packKeys.packNoKey(packKeys.shardOf(packNo)), PackKeys.longToBytes(packNo + 1));
+    }
+
+    @Test
+    public void testProbeFindsPackBeyondOnePage() {
+        RheaKVStore store = MockRheaKVStore.create();
+        // 0~9是旧leader写的, 10~2009作废, 新leader从2010开始写
+        for (long packNo = 0; packNo < 10; packNo++) {
+            write(store, packNo);
+        }
+        write(store, 2010);
+        write(store, 2011);
+        PackGaps gaps = new PackGaps(store, packKeys, "test", 0);
+        // 订阅者游标在10, [10, 1010)这一页是空的
+        assertEquals(2010, gaps.probe(1010));
+    }
+
+    @Test
+    public void testProbeCaughtUp() {
+        RheaKVStore store = MockRheaKVStore.create();
+        write(store, 0);
+        write(store, 1);
+        assertEquals(-1, new PackGaps(store, packKeys, "test", 0).probe(2));
+        assertEquals(-1, new PackGaps(MockRheaKVStore.create(), packKeys, "test", 0).probe(0));
+    }
+
+    @Test
+    public void testSkipAfterTimeout() throws InterruptedException {
+        PackGaps gaps = new PackGaps(MockRheaKVStore.create(), packKeys, "test", 20);
+        assertEquals(10, gaps.onGap(10, 2010));
+        assertEquals(10, gaps.onGap(10, 2010));
+        Thread.sleep(30);
+        assertEquals(2010, gaps.onGap(10, 2010));
+    }
+
+    @Test
+    public void testSkipDeletedRangeImmediately() {
+        RheaKVStore store = MockRheaKVStore.create();
+        // 清理删除了[0, 2000), 还剩2010
+        write(store, 2010);
+        store.bPut(PackKeys.retentionFloorKey(), PackKeys.longToBytes(2000));
+        PackGaps gaps = new PackGaps(store, packKeys, "test", 60_000);
+        assertEquals(2010, gaps.probe(1010));
+        // 清理线之前的包不会再出现, 不等gapTimeoutMs
+        assertEquals(2000, gaps.onGap(10, 2010));
+    }
+
+    @Test
+    public void testNewReaderStartsFromFloor() {
+        RheaKVStore store = MockRheaKVStore.create();
+        byte[] cursorKey = PackSubscriber.cursorKey("test");
+        assertEquals(0, PackSubscriber.loadCursor(store, cursorKey, "test"));
+
+        store.bPut(PackKeys.retentionFloorKey(), PackKeys.longToBytes(2000));
+        assertEquals(2000, PackSubscriber.loadCursor(store, cursorKey, "test"));
+        store.bPut(cursorKey, PackKeys.longToBytes(10));
+        assertEquals(2000, PackSubscriber.loadCursor(store, cursorKey, "test"));
+        store.bPut(cursorKey, PackKeys.longToBytes(3000));
+        assertEquals(3000, PackSubscriber.loadCursor(store, cursorKey, "test"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PackNoAllocatorTest {
+
+    private final PackKeys packKeys = new PackKeys(3);
+
+    /**
+     * 分片写入成功, 更新分片的PacketNo, 和PackWriter写入的值一致
+     */
+    private void commit(RheaKVStore store, long packNo) {
+        store.bPut(packKeys.packNoKey(packKeys.shardOf(packNo)), PackKeys.longToBytes(packNo + 1));
+    }
+
+    @Test
+    public void testFirstTermStartsFromZero() {
+        PackNoAllocator allocator = new PackNoAllocator(MockRheaKVStore.create(), packKeys, 10);
+        for (long i = 0; i < 25; i++) {
+            assertEquals(i, allocator.next(1));
+        }
+    }
+
+    @Test
+    public void testFailoverDoesNotReuseOldLeaderPackNos() {
+        RheaKVStore store = MockRheaKVStore.create();
+        PackNoAllocator oldLeader = new PackNoAllocator(store, packKeys, 10);
+        PackNoAllocator newLeader = new PackNoAllocator(store, packKeys, 10);
+
+        // 旧leader发了0~4, 只有0、1提交了, 2~4还在途
+        Set<Long> issued = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            issued.add(oldLeader.next(1));
+        }
+        commit(store, 0);
+        commit(store, 1);
+
+        // 新leader上任, 水位是2, 但旧leader的号段上限是10, 必须从10开始
+        long first = newLeader.next(2);
+        assertEquals(10, first);
+        assertTrue(issued.add(first));
+
+        // 旧leader还不知道自己下台了, 在途的号提交后继续在号段内发号, 都和新leader不重叠
+        commit(store, 4);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(issued.add(oldLeader.next(1)));
+        }
+        // 号段用完后预留失败, 旧leader被隔离
+        assertThrows(IllegalStateException.class, () -> oldLeader.next(1));
+
+        for (int i = 0; i < 30; i++) {
+            assertTrue(issued.add(newLeader.next(2)));
+        }
+    }
+
+    @Test
+    public void testFailoverUsesCommittedWatermarkWhenLimitMissing() {
+        RheaKVStore store = MockRheaKVStore.create();
+        commit(store, 41);
+        PackNoAllocator allocator = new PackNoAllocator(store, packKeys, 10);
+        assertEquals(42, allocator.next(1));
+    }
+
+    @Test
+    public void testRepeatedFailoverKeepsIncreasing() {
+        RheaKVStore store = MockRheaKVStore.create();
+        long last = -1;
+        for (long term = 1; term <= 5; term++) {
+            PackNoAllocator allocator = new PackNoAllocator(store, packKeys, 10);
+            for (int i = 0; i < 3; i++) {
+                long packNo = allocator.next(term);
+                assertTrue(packNo > last);
+                last = packNo;
+            }
+        }
+    }
+}
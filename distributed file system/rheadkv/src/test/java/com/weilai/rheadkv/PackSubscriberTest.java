@@ -0,0 +1,108 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import com.alipay.sofa.jraft.util.Bits;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+public class PackSubscriberTest {
+
+    private final PackKeys packKeys = new PackKeys(3);
+
+    private final BodyCodec bodyCodec = new BodyCodecKryoImpl();
+
+    @Test
+    public void testReplaySkipsHolesInsideSnapshot(@TempDir Path dir) throws Exception {
+        // 导出范围[0, 10), 2~4是换leader作废的号
+        Path file = dir.resolve("packs.snapshot");
+        try (PackFile.Writer writer = new PackFile.Writer(file, 0, 10)) {
+            for (long packNo : new long[]{0, 1, 5, 6, 7, 8, 9}) {
+                writer.append(packNo, bodyCodec.serialize(new StrsPack(packNo, Arrays.asList("str" + packNo))));
+            }
+        }
+        RheaKVStore store = MockRheaKVStore.create();
+        store.bPut(PackSubscriber.cursorKey("test"), PackKeys.longToBytes(1));
+
+        List<Long> delivered = new ArrayList<>();
+        PackSubscriber subscriber = new PackSubscriber(store, bodyCodec, packKeys, "test",
+                packs -> packs.forEach(pack -> delivered.add(pack.getPackNo())));
+        subscriber.setPageSize(2);
+        subscriber.start(file);
+        subscriber.stop();
+
+        assertEquals(Arrays.asList(1L, 5L, 6L, 7L, 8L, 9L), delivered);
+        assertEquals(10, subscriber.getCursor());
+        assertEquals(10, PackKeys.bytesToLong(store.bGet(PackSubscriber.cursorKey("test"))));
+    }
+
+    @Test
+    public void testLoadCursorsSkipsReadersWithoutHeartbeat() {
+        RheaKVStore store = MockRheaKVStore.create();
+        store.bPut(PackSubscriber.cursorKey("live"), PackSubscriber.cursorValue(100));
+        // 心跳停在10分钟前
+        byte[] stale = PackSubscriber.cursorValue(5);
+        Bits.putLong(stale, 8, System.currentTimeMillis() - 600_000);
+        store.bPut(PackSubscriber.cursorKey("stale"), stale);
+        // 老格式, 没有心跳
+        store.bPut(PackSubscriber.cursorKey("legacy"), PackKeys.longToBytes(1));
+
+        assertEquals(Collections.singletonMap("live", 100L), PackSubscriber.loadCursors(store, 60_000));
+        assertEquals(3, PackSubscriber.loadCursors(store, 0).size());
+    }
+
+    @Test
+    public void testReaderLagGaugeRemovedWhenReaderStops() {
+        RheaKVStore store = MockRheaKVStore.create();
+        store.bPut(packKeys.packNoKey(0), PackKeys.longToBytes(200_000));
+        byte[] stale = PackSubscriber.cursorValue(0);
+        Bits.putLong(stale, 8, System.currentTimeMillis() - 600_000);
+        store.bPut(PackSubscriber.cursorKey("reader"), PackSubscriber.cursorValue(0));
+
+        PackMetrics metrics = PackMetrics.noop();
+        metrics.refreshReaderLag(store, packKeys, 60_000);
+        assertEquals(200_000, metrics.getMaxReaderLag());
+
+        store.bPut(PackSubscriber.cursorKey("reader"), stale);
+        metrics.refreshReaderLag(store, packKeys, 60_000);
+        assertEquals(0, metrics.getMaxReaderLag());
+        assertNull(metrics.getRegistry().find("rheadkv.reader.lag").gauge());
+    }
+
+    @Test
+    public void testFollowerReadFallsBackToReadIndexWhenBehindWatermark() throws Exception {
+        RheaKVStore store = MockRheaKVStore.create();
+        for (long packNo = 0; packNo < 5; packNo++) {
+            store.bPut(packKeys.packKey(packNo), bodyCodec.serialize(new StrsPack(packNo, Arrays.asList("str" + packNo))));
+            store.bPut(packKeys.packNoKey(packKeys.shardOf(packNo)), PackKeys.longToBytes(packNo + 1));
+        }
+        // follower和leader断开了, 本地一个包都没有
+        when(store.scan(any(byte[].class), any(byte[].class), eq(false)))
+                .thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+
+        List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+        PackSubscriber subscriber = new PackSubscriber(store, bodyCodec, packKeys, "test",
+                packs -> packs.forEach(pack -> delivered.add(pack.getPackNo())));
+        subscriber.setReadConsistency(ReadConsistency.FOLLOWER_READ);
+        subscriber.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (subscriber.getCursor() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        subscriber.stop();
+
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), delivered);
+    }
+}
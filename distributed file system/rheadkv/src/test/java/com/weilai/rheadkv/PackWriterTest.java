@@ -0,0 +1,63 @@
+package com.weilai.rheadkv;
+
+import com.alipay.sofa.jraft.rhea.client.RheaKVStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PackWriterTest {
+
+    private final PackKeys packKeys = new PackKeys(3);
+
+    private static CompletableFuture<Boolean> failed() {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException("leader changed"));
+        return future;
+    }
+
+    @Test
+    public void testRetryUntilCommitted() throws Exception {
+        RheaKVStore store = mock(RheaKVStore.class);
+        when(store.put(anyList())).thenReturn(failed(), CompletableFuture.completedFuture(false),
+                CompletableFuture.completedFuture(true));
+        PackMetrics metrics = new PackMetrics(new SimpleMeterRegistry());
+        PackWriter writer = new PackWriter(store, new BodyCodecKryoImpl(), packKeys, 4, metrics);
+        writer.setRetryBackoffMs(1);
+
+        assertTrue(writer.write(new StrsPack(7, Arrays.asList("a"))).get(5, TimeUnit.SECONDS));
+        verify(store, times(3)).put(anyList());
+        assertEquals(2, metrics.failures("commit").count());
+        assertEquals(0, metrics.failures("drop").count());
+        assertEquals(0, writer.getInFlight());
+    }
+
+    @Test
+    public void testDropAfterRetries() {
+        RheaKVStore store = mock(RheaKVStore.class);
+        when(store.put(anyList())).thenAnswer(inv -> failed());
+        PackMetrics metrics = new PackMetrics(new SimpleMeterRegistry());
+        PackWriter writer = new PackWriter(store, new BodyCodecKryoImpl(), packKeys, 4, metrics);
+        writer.setRetryBackoffMs(1);
+        writer.setMaxRetries(2);
+
+        assertThrows(ExecutionException.class,
+                () -> writer.write(new StrsPack(7, Arrays.asList("a"))).get(5, TimeUnit.SECONDS));
+        verify(store, times(3)).put(anyList());
+        assertEquals(3, metrics.failures("commit").count());
+        assertEquals(1, metrics.failures("drop").count());
+        assertEquals(0, writer.getInFlight());
+    }
+}
@@ -0,0 +1,57 @@
+package com.weilai.rheadkv;
+
+import com.alipay.remoting.exception.CodecException;
+import com.alipay.sofa.jraft.util.Bits;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PayloadCompressorTest {
+
+    private static final int HEADROOM = 1;
+
+    private static byte[] sample(int repeat) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < repeat; i++) {
+            sb.append("str-").append(i % 10).append(',');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTrip() throws CodecException {
+        for (CompressionType type : new CompressionType[]{CompressionType.LZ4, CompressionType.ZSTD}) {
+            PayloadCompressor compressor = new PayloadCompressor(type, 16, null);
+            // 先压一个大的再压小的, 复用的缓冲区里残留的数据不能影响结果
+            for (byte[] raw : new byte[][]{sample(20000), sample(100)}) {
+                byte[] compressed = compressor.compress(raw, 0, raw.length, HEADROOM);
+                assertNotNull(compressed);
+                byte[] decompressed = compressor.decompress(type, compressed, HEADROOM, compressed.length - HEADROOM);
+                assertArrayEquals(raw, decompressed);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptRawLength() {
+        PayloadCompressor compressor = new PayloadCompressor(CompressionType.LZ4, 16, null);
+        byte[] raw = sample(100);
+        byte[] compressed = compressor.compress(raw, 0, raw.length, HEADROOM);
+        assertNotNull(compressed);
+
+        byte[] negative = Arrays.copyOf(compressed, compressed.length);
+        Bits.putInt(negative, HEADROOM, -1);
+        assertThrows(CodecException.class,
+                () -> compressor.decompress(CompressionType.LZ4, negative, HEADROOM, negative.length - HEADROOM));
+
+        byte[] huge = Arrays.copyOf(compressed, compressed.length);
+        Bits.putInt(huge, HEADROOM, Integer.MAX_VALUE);
+        assertThrows(CodecException.class,
+                () -> compressor.decompress(CompressionType.LZ4, huge, HEADROOM, huge.length - HEADROOM));
+    }
+}
@@ -0,0 +1,60 @@
+package com.weilai.benchmark;
+
+import com.weilai.kryo.codec.BodyCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通用编解码器 x 消息类型 的吞吐, 单线程(BodyCodecKryoImpl不是线程安全的)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"kryo", "kryoPool", "hessian2", "jackson"})
+    private String codec;
+
+    @Param({"commonMsg", "strsPack", "user"})
+    private String shape;
+
+    private BodyCodec bodyCodec;
+
+    private Object payload;
+
+    private Class<?> payloadClass;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws Exception {
+        bodyCodec = Payloads.codec(codec);
+        payload = Payloads.payload(shape);
+        payloadClass = payload.getClass();
+        bytes = bodyCodec.serialize(payload);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return bodyCodec.serialize(payload);
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return bodyCodec.deserialize(bytes, payloadClass);
+    }
+}
@@ -0,0 +1,56 @@
+package com.weilai.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.weilai.kryo.codec.CommonMsgCodec;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 运行全部编解码benchmark
+ * 1.先把每种编解码器 x 消息类型的报文字节数写到payload-sizes.json, 大小是确定的, 不需要JMH测
+ * 2.再运行JMH, 带gc profiler(gc.alloc.rate.norm即每次操作分配的字节数), 结果写到codec-benchmark.json
+ * 参数和JMH命令行相同, 比如只跑Kryo: java -jar target/benchmarks.jar CodecBenchmark -p codec=kryo,kryoPool
+ */
+public class CodecBenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Map<String, Integer>> sizes = new LinkedHashMap<>();
+        for (String codec : Payloads.CODECS) {
+            Map<String, Integer> codecSizes = new LinkedHashMap<>();
+            for (String shape : Payloads.SHAPES) {
+                codecSizes.put(shape, Payloads.codec(codec).serialize(Payloads.payload(shape)).length);
+            }
+            sizes.put(codec, codecSizes);
+        }
+        Map<String, Integer> protobufSizes = new LinkedHashMap<>();
+        protobufSizes.put("user", Payloads.protoUser().getSerializedSize());
+        sizes.put("protobuf", protobufSizes);
+        Map<String, Integer> commonMsgCodecSizes = new LinkedHashMap<>();
+        commonMsgCodecSizes.put("commonMsg", CommonMsgCodec.encodedSize(Payloads.commonMsg()));
+        sizes.put("commonMsgCodec", commonMsgCodecSizes);
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        objectMapper.writeValue(new File("payload-sizes.json"), sizes);
+        System.out.println("payload sizes (bytes): " + sizes);
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(new CommandLineOptions(args));
+        if (args.length == 0) {
+            options.include(CodecBenchmark.class.getSimpleName())
+                    .include(ProtobufBenchmark.class.getSimpleName())
+                    .include(CommonMsgCodecBenchmark.class.getSimpleName());
+        }
+        options.addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("codec-benchmark.json");
+        new Runner(options.build()).run();
+    }
+}
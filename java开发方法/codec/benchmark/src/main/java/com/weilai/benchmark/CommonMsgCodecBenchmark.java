@@ -0,0 +1,75 @@
+package com.weilai.benchmark;
+
+import com.weilai.kryo.codec.CommonMsg;
+import com.weilai.kryo.codec.CommonMsgCodec;
+import com.weilai.kryo.codec.CommonMsgFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommonMsg的定长编码, 和CodecBenchmark里shape=commonMsg的结果对比
+ * 1.encodeInto: 编码到复用的直接内存, 网关写socket的方式
+ * 2.frame: 用CommonMsgFrame读包头字段和包体切片, 不创建CommonMsg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommonMsgCodecBenchmark {
+
+    private CommonMsg msg;
+
+    private ByteBuffer direct;
+
+    private ByteBuffer encoded;
+
+    private final CommonMsgFrame frame = new CommonMsgFrame();
+
+    @Setup
+    public void setup() {
+        msg = Payloads.commonMsg();
+        direct = ByteBuffer.allocateDirect(CommonMsgCodec.encodedSize(msg));
+        encoded = ByteBuffer.allocateDirect(CommonMsgCodec.encodedSize(msg));
+        CommonMsgCodec.encode(msg, encoded);
+        encoded.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeInto() {
+        direct.clear();
+        CommonMsgCodec.encode(msg, direct);
+        return direct;
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        return CommonMsgCodec.encode(msg);
+    }
+
+    @Benchmark
+    public void frame(Blackhole blackhole) {
+        frame.wrap(encoded, 0);
+        blackhole.consume(frame.msgNo());
+        blackhole.consume(frame.msgType());
+        blackhole.consume(frame.body());
+    }
+
+    @Benchmark
+    public CommonMsg decode() {
+        return CommonMsgCodec.decode(encoded);
+    }
+}
@@ -0,0 +1,24 @@
+package com.weilai.benchmark;
+
+import com.alipay.remoting.exception.CodecException;
+import com.alipay.remoting.serialization.Serializer;
+import com.alipay.remoting.serialization.SerializerManager;
+import com.weilai.kryo.codec.BodyCodec;
+
+/**
+ * 和rheadkv的BodyCodecHessianImpl相同
+ */
+public class Hessian2BodyCodec implements BodyCodec {
+
+    private final Serializer serializer = SerializerManager.getSerializer(SerializerManager.Hessian2);
+
+    @Override
+    public <T> byte[] serialize(T obj) throws CodecException {
+        return serializer.serialize(obj);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
+        return serializer.deserialize(bytes, clazz.getName());
+    }
+}
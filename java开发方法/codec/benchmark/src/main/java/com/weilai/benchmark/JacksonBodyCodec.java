@@ -0,0 +1,33 @@
+package com.weilai.benchmark;
+
+import com.alipay.remoting.exception.CodecException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.weilai.kryo.codec.BodyCodec;
+
+import java.io.IOException;
+
+/**
+ * pubsub模块的用法: 共享一个ObjectMapper, 编码成JSON字节
+ */
+public class JacksonBodyCodec implements BodyCodec {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public <T> byte[] serialize(T obj) throws CodecException {
+        try {
+            return objectMapper.writeValueAsBytes(obj);
+        } catch (IOException e) {
+            throw new CodecException("jackson serialize error", e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
+        try {
+            return objectMapper.readValue(bytes, clazz);
+        } catch (IOException e) {
+            throw new CodecException("jackson deserialize error", e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.weilai.benchmark;
+
+import com.weilai.benchmark.model.StrsPack;
+import com.weilai.benchmark.model.User;
+import com.weilai.kryo.codec.BodyCodec;
+import com.weilai.kryo.codec.BodyCodecKryoImpl;
+import com.weilai.kryo.codec.BodyCodecKryoPoolImpl;
+import com.weilai.kryo.codec.CommonMsg;
+import com.weilai.kryo.codec.CommonMsgCodec;
+import com.weilai.kryo.codec.KryoRegistrations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 测试用的消息和编解码器, 内容固定, 每次运行的报文大小都一样
+ */
+public final class Payloads {
+
+    public static final String[] CODECS = {"kryo", "kryoPool", "hessian2", "jackson"};
+
+    public static final String[] SHAPES = {"commonMsg", "strsPack", "user"};
+
+    private Payloads() {
+    }
+
+    public static BodyCodec codec(String name) {
+        switch (name) {
+            case "kryo":
+                //vertx multicast的MultiBodyCodec和它的实现完全相同
+                return new BodyCodecKryoImpl();
+            case "kryoPool":
+                Map<Class<?>, Integer> registrations = KryoRegistrations.defaults();
+                registrations.put(StrsPack.class, 100);
+                registrations.put(User.class, 101);
+                registrations.put(User.Address.class, 102);
+                return new BodyCodecKryoPoolImpl(registrations, false, 16);
+            case "hessian2":
+                return new Hessian2BodyCodec();
+            case "jackson":
+                return new JacksonBodyCodec();
+            default:
+                throw new IllegalArgumentException("unknown codec " + name);
+        }
+    }
+
+    public static Object payload(String shape) {
+        switch (shape) {
+            case "commonMsg":
+                return commonMsg();
+            case "strsPack":
+                return strsPack();
+            case "user":
+                return user();
+            default:
+                throw new IllegalArgumentException("unknown shape " + shape);
+        }
+    }
+
+    /**
+     * 网关消息, 包体64字节
+     */
+    public static CommonMsg commonMsg() {
+        CommonMsg msg = new CommonMsg();
+        byte[] body = new byte[64];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        msg.setBody(body);
+        msg.setBodyLength(body.length);
+        msg.setChecksum(CommonMsgCodec.checksum(body));
+        msg.setMsgSrc((short) 1);
+        msg.setMsgDst((short) 2);
+        msg.setMsgType((short) 3);
+        msg.setStatus((byte) 0);
+        msg.setMsgNo(1234567890123L);
+        return msg;
+    }
+
+    /**
+     * 排队机的包, 10条32字符左右的字符串
+     */
+    public static StrsPack strsPack() {
+        List<String> strs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            strs.add("order-" + i + "-abcdefghijklmnopqrstuvwxyz");
+        }
+        return new StrsPack(10086L, strs);
+    }
+
+    public static User user() {
+        return new User(42, "张三", "zhangsan@example.com", 30, true,
+                new User.Address("人民路1号", "上海", "中国"));
+    }
+
+    public static com.example.protobufdemo.protobuf.User protoUser() {
+        User user = user();
+        return com.example.protobufdemo.protobuf.User.newBuilder()
+                .setId(user.getId())
+                .setName(user.getName())
+                .setEmail(user.getEmail())
+                .setAge(user.getAge())
+                .setActive(user.isActive())
+                .setAddress(com.example.protobufdemo.protobuf.User.Address.newBuilder()
+                        .setStreet(user.getAddress().getStreet())
+                        .setCity(user.getAddress().getCity())
+                        .setCountry(user.getAddress().getCountry()))
+                .build();
+    }
+}
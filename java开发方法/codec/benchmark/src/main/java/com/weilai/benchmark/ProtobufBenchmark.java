@@ -0,0 +1,47 @@
+package com.weilai.benchmark;
+
+import com.example.protobufdemo.protobuf.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * protobufdemo的User, 和CodecBenchmark里shape=user的结果对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtobufBenchmark {
+
+    private User user;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        user = Payloads.protoUser();
+        bytes = user.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return user.toByteArray();
+    }
+
+    @Benchmark
+    public User deserialize() throws Exception {
+        return User.parseFrom(bytes);
+    }
+}
@@ -0,0 +1,19 @@
+package com.weilai.benchmark.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 和rheadkv的StrsPack字段相同
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StrsPack implements Serializable {
+    private long packNo;
+    private List<String> strs;
+}
@@ -0,0 +1,31 @@
+package com.weilai.benchmark.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 和protobufdemo的user.proto字段相同的POJO, 给Kryo/Hessian2/Jackson使用
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class User implements Serializable {
+    private int id;
+    private String name;
+    private String email;
+    private int age;
+    private boolean active;
+    private Address address;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Address implements Serializable {
+        private String street;
+        private String city;
+        private String country;
+    }
+}
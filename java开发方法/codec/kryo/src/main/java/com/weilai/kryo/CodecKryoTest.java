@@ -2,6 +2,7 @@ package com.weilai.kryo;
 
 import com.alipay.remoting.exception.CodecException;
 import com.weilai.kryo.codec.BodyCodecKryoImpl;
+import com.weilai.kryo.codec.BodyCodecKryoPoolImpl;
 import com.weilai.kryo.codec.CommonMsg;
 
 import java.io.UnsupportedEncodingException;
@@ -18,6 +19,12 @@ public class CodecKryoTest {
         byte[] serialize = bodyCodec.serialize(commonMsg);
         System.out.println(bodyCodec.deserialize(serialize, CommonMsg.class));
 
+        //注册类之后报文里不再有类名
+        BodyCodecKryoPoolImpl poolCodec = new BodyCodecKryoPoolImpl();
+        byte[] pooled = poolCodec.serialize(commonMsg);
+        System.out.println(poolCodec.deserialize(pooled, CommonMsg.class));
+        System.out.println("payload size: " + serialize.length + " bytes -> " + pooled.length + " bytes");
+
         long endTime = System.currentTimeMillis(); // 记录结束时间
         long duration = endTime - startTime; // 计算消耗时间（毫秒）
         System.out.println("Total time taken: " + duration + " ms");
@@ -0,0 +1,123 @@
+package com.weilai.kryo.codec;
+
+import com.alipay.remoting.exception.CodecException;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.unsafe.UnsafeInput;
+import com.esotericsoftware.kryo.unsafe.UnsafeOutput;
+import com.esotericsoftware.kryo.util.Pool;
+import com.esotericsoftware.kryo.util.Util;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * 线程安全的Kryo编解码
+ * 1.Kryo实例不是线程安全的, 用Pool管理, 每次调用借出一个, 用完归还
+ * 2.强制注册类, 报文里只写注册ID, 比写类名的BodyCodecKryoImpl小得多, 注册表见KryoRegistrations
+ * 3.Output/Input也放在池里复用, 不再每次new ByteArrayOutputStream和缓冲区, 每条消息只分配结果数组;
+ *   被大消息撑到MAX_POOLED_BUFFER_SIZE以上的Output不放回池里, 避免偶尔的大消息长期占用内存
+ * 4.unsafe=true时使用UnsafeOutput/UnsafeInput, 按本机字节序直接读写内存, 更快但不压缩int/long,
+ *   两端必须都用unsafe并且CPU字节序相同; JDK17上需要启动参数 --add-exports java.base/sun.nio.ch=ALL-UNNAMED,
+ *   否则Kryo无法使用unsafe, 自动退回普通的Output/Input
+ */
+public class BodyCodecKryoPoolImpl implements BodyCodec {
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    private static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 缓冲区超过这个长度的Output用完直接丢弃, 不放回池里
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 实际是否使用了unsafe的输入输出流
+     */
+    @Getter
+    private final boolean unsafe;
+
+    private final Pool<Kryo> kryoPool;
+
+    private final Pool<Output> outputPool;
+
+    private final Pool<Input> inputPool;
+
+    public BodyCodecKryoPoolImpl() {
+        this(KryoRegistrations.defaults(), false, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param registrations 类 -> 注册ID
+     * @param unsafe        是否使用unsafe的输入输出流
+     * @param maxPoolSize   每个池最多保留的对象数, 超出的对象用完直接丢弃
+     */
+    public BodyCodecKryoPoolImpl(Map<Class<?>, Integer> registrations, boolean unsafe, int maxPoolSize) {
+        this.unsafe = unsafe && Util.unsafe;
+        this.kryoPool = new Pool<Kryo>(true, false, maxPoolSize) {
+            @Override
+            protected Kryo create() {
+                Kryo kryo = new Kryo();
+                KryoRegistrations.register(kryo, registrations);
+                return kryo;
+            }
+        };
+        this.outputPool = new Pool<Output>(true, false, maxPoolSize) {
+            @Override
+            protected Output create() {
+                return BodyCodecKryoPoolImpl.this.unsafe ? new UnsafeOutput(INITIAL_BUFFER_SIZE, MAX_BUFFER_SIZE)
+                        : new Output(INITIAL_BUFFER_SIZE, MAX_BUFFER_SIZE);
+            }
+        };
+        this.inputPool = new Pool<Input>(true, false, maxPoolSize) {
+            @Override
+            protected Input create() {
+                return BodyCodecKryoPoolImpl.this.unsafe ? new UnsafeInput() : new Input();
+            }
+        };
+    }
+
+    @Override
+    public <T> byte[] serialize(T obj) throws CodecException {
+        Kryo kryo = kryoPool.obtain();
+        Output output = outputPool.obtain();
+        try {
+            output.reset();
+            kryo.writeClassAndObject(output, obj);
+            return output.toBytes();
+        } catch (KryoException e) {
+            throw new CodecException("kryo serialize " + (obj == null ? null : obj.getClass().getName()) + " error", e);
+        } finally {
+            if (output.getBuffer().length <= MAX_POOLED_BUFFER_SIZE) {
+                outputPool.free(output);
+            }
+            kryoPool.free(kryo);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws CodecException {
+        Kryo kryo = kryoPool.obtain();
+        Input input = inputPool.obtain();
+        try {
+            input.setBuffer(bytes);
+            Object obj = kryo.readClassAndObject(input);
+            if (!clazz.isInstance(obj)) {
+                throw new CodecException("Deserialized object is not of expected type: " + clazz.getName());
+            }
+            return clazz.cast(obj);
+        } catch (KryoException e) {
+            throw new CodecException("kryo deserialize " + clazz.getName() + " error", e);
+        } finally {
+            //不持有调用方的数组
+            input.setBuffer(EMPTY);
+            inputPool.free(input);
+            kryoPool.free(kryo);
+        }
+    }
+}
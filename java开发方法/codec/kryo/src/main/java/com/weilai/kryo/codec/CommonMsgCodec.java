@@ -0,0 +1,138 @@
+package com.weilai.kryo.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CommonMsg的定长二进制编码, 不经过反射, 直接用绝对位置读写ByteBuffer(堆内或直接内存)
+ * 包头[ 包体长度 int + 校验和 byte + src short + dst short + 消息类型 short + 消息状态 byte + 包编号 long ] 共20字节, 大端
+ * 包体[ 数据 byte[] ]
+ * isLegal/errCode/timestamp只在网关内部使用, 不上线路
+ */
+public final class CommonMsgCodec {
+
+    public static final int BODY_LENGTH_OFFSET = 0;
+
+    public static final int CHECKSUM_OFFSET = 4;
+
+    public static final int SRC_OFFSET = 5;
+
+    public static final int DST_OFFSET = 7;
+
+    public static final int TYPE_OFFSET = 9;
+
+    public static final int STATUS_OFFSET = 11;
+
+    public static final int MSG_NO_OFFSET = 12;
+
+    public static final int HEADER_SIZE = 20;
+
+    /**
+     * 默认的包体长度上限, 包头里的长度超过它或者为负数时说明流已经错位或者对端有问题
+     */
+    public static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+
+    private CommonMsgCodec() {
+    }
+
+    public static int encodedSize(CommonMsg msg) {
+        return HEADER_SIZE + (msg.getBody() == null ? 0 : msg.getBody().length);
+    }
+
+    /**
+     * 编码到调用方提供的缓冲区, 从dst.position()开始写, 写完后position移到帧尾
+     * 包体长度按body实际长度写入, 不使用msg.bodyLength
+     */
+    public static void encode(CommonMsg msg, ByteBuffer dst) {
+        byte[] body = msg.getBody();
+        int bodyLength = body == null ? 0 : body.length;
+        int index = dst.position();
+        if (dst.remaining() < HEADER_SIZE + bodyLength) {
+            throw new BufferOverflowException();
+        }
+        encodeHeader(dst, index, bodyLength, msg.getChecksum(), msg.getMsgSrc(), msg.getMsgDst(),
+                msg.getMsgType(), msg.getStatus(), msg.getMsgNo());
+        if (bodyLength > 0) {
+            dst.put(index + HEADER_SIZE, body);
+        }
+        dst.position(index + HEADER_SIZE + bodyLength);
+    }
+
+    /**
+     * 编码到新分配的堆内缓冲区, 返回的缓冲区可以直接读取
+     */
+    public static ByteBuffer encode(CommonMsg msg) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(msg));
+        encode(msg, buffer);
+        return buffer.flip();
+    }
+
+    /**
+     * 只在index处写包头, 不移动position
+     * 包体已经在缓冲区里(比如直接读到了index + HEADER_SIZE处)时用这个方法, 包体不需要再拷贝一次
+     */
+    public static void encodeHeader(ByteBuffer dst, int index, int bodyLength, byte checksum, short src, short dstAddr,
+                                    short type, byte status, long msgNo) {
+        checkOrder(dst);
+        dst.putInt(index + BODY_LENGTH_OFFSET, bodyLength);
+        dst.put(index + CHECKSUM_OFFSET, checksum);
+        dst.putShort(index + SRC_OFFSET, src);
+        dst.putShort(index + DST_OFFSET, dstAddr);
+        dst.putShort(index + TYPE_OFFSET, type);
+        dst.put(index + STATUS_OFFSET, status);
+        dst.putLong(index + MSG_NO_OFFSET, msgNo);
+    }
+
+    /**
+     * @return index处完整帧的长度, 包头还没收全时返回-1, 用于从流里切帧
+     * @throws IllegalArgumentException 包体长度为负数或超过MAX_BODY_LENGTH
+     */
+    public static int frameLength(ByteBuffer src, int index) {
+        return frameLength(src, index, MAX_BODY_LENGTH);
+    }
+
+    /**
+     * @param maxBodyLength 包体长度上限, 调用方按自己的协议收紧
+     * @throws IllegalArgumentException 包体长度为负数或超过maxBodyLength, 调用方应该断开连接, 不能跳过这一帧继续切
+     */
+    public static int frameLength(ByteBuffer src, int index, int maxBodyLength) {
+        if (src.limit() - index < HEADER_SIZE) {
+            return -1;
+        }
+        checkOrder(src);
+        int bodyLength = src.getInt(index + BODY_LENGTH_OFFSET);
+        if (bodyLength < 0 || bodyLength > maxBodyLength) {
+            throw new IllegalArgumentException("illegal CommonMsg body length " + bodyLength + " at " + index);
+        }
+        return HEADER_SIZE + bodyLength;
+    }
+
+    /**
+     * 解码成CommonMsg, 包体会拷贝一份; 热路径上用CommonMsgFrame直接读
+     */
+    public static CommonMsg decode(ByteBuffer src) {
+        return new CommonMsgFrame().wrap(src, src.position()).toCommonMsg();
+    }
+
+    /**
+     * 包体所有字节的异或
+     */
+    public static byte checksum(ByteBuffer body) {
+        byte checksum = 0;
+        for (int i = body.position(); i < body.limit(); i++) {
+            checksum ^= body.get(i);
+        }
+        return checksum;
+    }
+
+    public static byte checksum(byte[] body) {
+        return body == null ? 0 : checksum(ByteBuffer.wrap(body));
+    }
+
+    static void checkOrder(ByteBuffer buffer) {
+        if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+            throw new IllegalArgumentException("CommonMsg frame must be big endian");
+        }
+    }
+}
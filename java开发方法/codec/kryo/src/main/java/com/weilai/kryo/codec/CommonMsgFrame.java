@@ -0,0 +1,89 @@
+package com.weilai.kryo.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 缓冲区里一帧CommonMsg的只读视图, 字段按需从缓冲区读取, 不创建CommonMsg也不拷贝包体
+ * 同一个实例可以反复wrap不同的帧, 只在一个线程里使用; 缓冲区被复用或改写后视图随之失效
+ */
+public class CommonMsgFrame {
+
+    private ByteBuffer buffer;
+
+    private int offset;
+
+    /**
+     * @param offset 帧在缓冲区里的起始位置
+     */
+    public CommonMsgFrame wrap(ByteBuffer buffer, int offset) {
+        CommonMsgCodec.checkOrder(buffer);
+        int frameLength = CommonMsgCodec.frameLength(buffer, offset);
+        if (frameLength < 0 || offset + frameLength > buffer.limit()) {
+            throw new IllegalArgumentException("incomplete CommonMsg frame at " + offset);
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    public int frameLength() {
+        return CommonMsgCodec.HEADER_SIZE + bodyLength();
+    }
+
+    public int bodyLength() {
+        return buffer.getInt(offset + CommonMsgCodec.BODY_LENGTH_OFFSET);
+    }
+
+    public byte checksum() {
+        return buffer.get(offset + CommonMsgCodec.CHECKSUM_OFFSET);
+    }
+
+    public short msgSrc() {
+        return buffer.getShort(offset + CommonMsgCodec.SRC_OFFSET);
+    }
+
+    public short msgDst() {
+        return buffer.getShort(offset + CommonMsgCodec.DST_OFFSET);
+    }
+
+    public short msgType() {
+        return buffer.getShort(offset + CommonMsgCodec.TYPE_OFFSET);
+    }
+
+    public byte status() {
+        return buffer.get(offset + CommonMsgCodec.STATUS_OFFSET);
+    }
+
+    public long msgNo() {
+        return buffer.getLong(offset + CommonMsgCodec.MSG_NO_OFFSET);
+    }
+
+    /**
+     * @return 和原缓冲区共享内存的包体切片, 不拷贝
+     */
+    public ByteBuffer body() {
+        return buffer.slice(offset + CommonMsgCodec.HEADER_SIZE, bodyLength());
+    }
+
+    public boolean isChecksumValid() {
+        return CommonMsgCodec.checksum(body()) == checksum();
+    }
+
+    /**
+     * 需要把消息交给其他线程或长期保存时, 拷贝成CommonMsg
+     */
+    public CommonMsg toCommonMsg() {
+        CommonMsg msg = new CommonMsg();
+        msg.setBodyLength(bodyLength());
+        msg.setChecksum(checksum());
+        msg.setMsgSrc(msgSrc());
+        msg.setMsgDst(msgDst());
+        msg.setMsgType(msgType());
+        msg.setStatus(status());
+        msg.setMsgNo(msgNo());
+        byte[] body = new byte[bodyLength()];
+        buffer.get(offset + CommonMsgCodec.HEADER_SIZE, body);
+        msg.setBody(body);
+        return msg;
+    }
+}
@@ -0,0 +1,44 @@
+package com.weilai.kryo.codec;
+
+import com.esotericsoftware.kryo.Kryo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 需要序列化的类和它们的注册ID
+ * 1.注册后报文里只写一个变长int的ID, 不再写完整类名
+ * 2.ID一旦发布就不能修改或复用, 收发两端必须用同一份注册表; 新增的类只能追加新的ID
+ * 3.Kryo内置了0~9给基本类型和String, 自定义ID从10开始
+ */
+public final class KryoRegistrations {
+
+    private static final Map<Class<?>, Integer> DEFAULT = new LinkedHashMap<>();
+
+    static {
+        DEFAULT.put(byte[].class, 10);
+        DEFAULT.put(ArrayList.class, 11);
+        DEFAULT.put(HashMap.class, 12);
+        DEFAULT.put(CommonMsg.class, 20);
+    }
+
+    private KryoRegistrations() {
+    }
+
+    /**
+     * @return 默认注册表的副本, 可以在上面追加业务类后传给BodyCodecKryoPoolImpl
+     */
+    public static Map<Class<?>, Integer> defaults() {
+        return new LinkedHashMap<>(DEFAULT);
+    }
+
+    /**
+     * 按注册表注册, 并要求所有序列化的类都必须注册
+     */
+    public static void register(Kryo kryo, Map<Class<?>, Integer> registrations) {
+        kryo.setRegistrationRequired(true);
+        registrations.forEach(kryo::register);
+    }
+}
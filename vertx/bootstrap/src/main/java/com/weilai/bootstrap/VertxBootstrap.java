@@ -0,0 +1,104 @@
+package com.weilai.bootstrap;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.datagram.DatagramSocketOptions;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.TCPSSLOptions;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 创建Vertx和网络选项, socket、multicast、web模块共用
+ * 1.nativeTransport: Linux上有netty-transport-native-epoll时使用epoll, 否则退回NIO, 以vertx.isNativeTransportEnabled()为准
+ * 2.TCP_NODELAY关闭Nagle, 小帧不等待合并; TCP_QUICKACK和SO_REUSEPORT只有epoll支持, NIO下Vert.x会忽略
+ * 3.SO_REUSEPORT只是允许多个进程绑定同一个端口(例如重启时新旧进程交替); 同一个Vertx里部署多个实例时,
+ *   Vert.x 3只绑定一个监听socket, 新连接由它轮流分给各实例的事件循环, 并不是每个事件循环各自accept
+ * 4.组播突发时默认的接收缓冲区容易溢出丢包, 可以用vertx.rcvbuf调大
+ * 配置来自系统属性, 例如 -Dvertx.nativetransport=false -Dvertx.sndbuf=1048576, 0表示使用系统默认值
+ * 日志用Vert.x自带的Logger, web模块没有引入slf4j
+ */
+@Getter
+@Setter
+public class VertxBootstrap {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VertxBootstrap.class);
+
+    private boolean nativeTransport = true;
+
+    private boolean tcpNoDelay = true;
+
+    private boolean tcpQuickAck = true;
+
+    private boolean reusePort = true;
+
+    private int sendBufferSize = 0;
+
+    private int receiveBufferSize = 0;
+
+    public static VertxBootstrap fromSystemProperties() {
+        VertxBootstrap bootstrap = new VertxBootstrap();
+        bootstrap.nativeTransport = Boolean.parseBoolean(System.getProperty("vertx.nativetransport", "true"));
+        bootstrap.tcpNoDelay = Boolean.parseBoolean(System.getProperty("vertx.tcpnodelay", "true"));
+        bootstrap.tcpQuickAck = Boolean.parseBoolean(System.getProperty("vertx.tcpquickack", "true"));
+        bootstrap.reusePort = Boolean.parseBoolean(System.getProperty("vertx.reuseport", "true"));
+        bootstrap.sendBufferSize = Integer.parseInt(System.getProperty("vertx.sndbuf", "0"));
+        bootstrap.receiveBufferSize = Integer.parseInt(System.getProperty("vertx.rcvbuf", "0"));
+        return bootstrap;
+    }
+
+    public Vertx createVertx() {
+        Vertx vertx = Vertx.vertx(new VertxOptions().setPreferNativeTransport(nativeTransport));
+        if (nativeTransport && !vertx.isNativeTransportEnabled()) {
+            LOGGER.warn("native transport unavailable, fall back to NIO");
+        }
+        LOGGER.info("vertx transport: " + (vertx.isNativeTransportEnabled() ? "epoll" : "nio")
+                + ", tcpNoDelay: " + tcpNoDelay + ", tcpQuickAck: " + tcpQuickAck + ", reusePort: " + reusePort
+                + ", sndbuf: " + sendBufferSize + ", rcvbuf: " + receiveBufferSize);
+        return vertx;
+    }
+
+    public NetServerOptions netServerOptions() {
+        return apply(new NetServerOptions());
+    }
+
+    public NetClientOptions netClientOptions() {
+        return apply(new NetClientOptions());
+    }
+
+    public HttpServerOptions httpServerOptions() {
+        return apply(new HttpServerOptions());
+    }
+
+    /**
+     * UDP只用到SO_REUSEPORT和收发缓冲区
+     */
+    public DatagramSocketOptions datagramSocketOptions() {
+        DatagramSocketOptions options = new DatagramSocketOptions();
+        options.setReusePort(reusePort);
+        if (sendBufferSize > 0) {
+            options.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            options.setReceiveBufferSize(receiveBufferSize);
+        }
+        return options;
+    }
+
+    private <T extends TCPSSLOptions> T apply(T options) {
+        options.setTcpNoDelay(tcpNoDelay);
+        options.setTcpQuickAck(tcpQuickAck);
+        options.setReusePort(reusePort);
+        if (sendBufferSize > 0) {
+            options.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            options.setReceiveBufferSize(receiveBufferSize);
+        }
+        return options;
+    }
+}
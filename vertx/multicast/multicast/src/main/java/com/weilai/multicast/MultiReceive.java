@@ -1,10 +1,10 @@
 package com.weilai.multicast;
 
 import com.alipay.remoting.exception.CodecException;
+import com.weilai.bootstrap.VertxBootstrap;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.datagram.DatagramSocket;
-import io.vertx.core.datagram.DatagramSocketOptions;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.Inet4Address;
@@ -15,14 +15,15 @@ import java.util.Comparator;
 
 @Slf4j
 public class MultiReceive {
-    private static Vertx vertx = Vertx.vertx();
+    private static VertxBootstrap bootstrap = VertxBootstrap.fromSystemProperties();
+    private static Vertx vertx = bootstrap.createVertx();
 
     public static void main(String[] args) {
         String multicastIp = "239.0.0.1";
         int multicastPort = 1234;
         MultiBodyCodec multiBodyCodec = new MultiBodyCodec();
         //接收数据(组播)
-        DatagramSocket datagramSocket = vertx.createDatagramSocket(new DatagramSocketOptions());
+        DatagramSocket datagramSocket = vertx.createDatagramSocket(bootstrap.datagramSocketOptions());
 
         datagramSocket.listen(multicastPort, "0.0.0.0", asyncRes -> {
             if (asyncRes.succeeded()) {
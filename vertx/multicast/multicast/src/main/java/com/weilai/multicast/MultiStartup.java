@@ -1,9 +1,9 @@
 package com.weilai.multicast;
 
+import com.weilai.bootstrap.VertxBootstrap;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.datagram.DatagramSocket;
-import io.vertx.core.datagram.DatagramSocketOptions;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.Arrays;
@@ -16,7 +16,9 @@ public class MultiStartup {
         int multicastPort = 1234;
         MultiBodyCodec multiBodyCodec = new MultiBodyCodec();
 
-        DatagramSocket multicastSender = Vertx.vertx().createDatagramSocket(new DatagramSocketOptions());
+        VertxBootstrap bootstrap = VertxBootstrap.fromSystemProperties();
+        Vertx vertx = bootstrap.createVertx();
+        DatagramSocket multicastSender = vertx.createDatagramSocket(bootstrap.datagramSocketOptions());
 
         long packNo = 0;
 
@@ -3,12 +3,47 @@ package com.weilai.socket;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import java.io.Serializable;
 
+/**
+ * 网关消息, 线路格式和kryo模块的CommonMsg相同, 见FrameCodec
+ * 需要在事件循环之外保存或处理消息时才创建, 热路径上直接用MsgFrame读取
+ */
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 public class CommonMsg implements Serializable {
-    private int id;
-}
\ No newline at end of file
+
+    /**
+     * 数据源
+     */
+    private short msgSrc;
+
+    /**
+     * 数据目的地
+     */
+    private short msgDst;
+
+    /**
+     * 消息类型
+     */
+    private short msgType;
+
+    /**
+     * 消息状态
+     */
+    private byte status;
+
+    /**
+     * 包编号
+     */
+    private long msgNo;
+
+    /**
+     * 包体
+     */
+    @ToString.Exclude
+    private byte[] body;
+}
@@ -0,0 +1,71 @@
+package com.weilai.socket;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * 网关的帧格式, 和kryo模块的CommonMsg一致, 大端
+ * 包头[ 包体长度 int + 校验和 byte + src short + dst short + 消息类型 short + 消息状态 byte + 包编号 long ] 共20字节
+ * 包体[ 数据 byte[] ]
+ */
+public final class FrameCodec {
+
+    public static final int BODY_LENGTH_OFFSET = 0;
+
+    public static final int CHECKSUM_OFFSET = 4;
+
+    public static final int SRC_OFFSET = 5;
+
+    public static final int DST_OFFSET = 7;
+
+    public static final int TYPE_OFFSET = 9;
+
+    public static final int STATUS_OFFSET = 11;
+
+    public static final int MSG_NO_OFFSET = 12;
+
+    public static final int HEADER_SIZE = 20;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * 把一帧追加到out后面, 校验和按包体计算
+     */
+    public static Buffer encode(Buffer out, short src, short dst, short type, byte status, long msgNo, Buffer body) {
+        int bodyLength = body == null ? 0 : body.length();
+        out.appendInt(bodyLength)
+                .appendByte(checksum(body, 0, bodyLength))
+                .appendShort(src)
+                .appendShort(dst)
+                .appendShort(type)
+                .appendByte(status)
+                .appendLong(msgNo);
+        if (bodyLength > 0) {
+            out.appendBuffer(body);
+        }
+        return out;
+    }
+
+    public static Buffer encode(Buffer out, CommonMsg msg) {
+        return encode(out, msg.getMsgSrc(), msg.getMsgDst(), msg.getMsgType(), msg.getStatus(), msg.getMsgNo(),
+                msg.getBody() == null ? null : Buffer.buffer(msg.getBody()));
+    }
+
+    /**
+     * 回复一个请求帧: src和dst互换, 沿用请求的消息类型和包编号, 客户端按包编号找到对应的请求
+     */
+    public static Buffer encodeReply(Buffer out, MsgFrame request, byte status, Buffer body) {
+        return encode(out, request.msgDst(), request.msgSrc(), request.msgType(), status, request.msgNo(), body);
+    }
+
+    /**
+     * 包体[from, to)所有字节的异或
+     */
+    public static byte checksum(Buffer buffer, int from, int to) {
+        byte checksum = 0;
+        for (int i = from; i < to; i++) {
+            checksum ^= buffer.getByte(i);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,73 @@
+package com.weilai.socket;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 从TCP流里切帧, 每个连接一个实例, 只在连接的事件循环里调用
+ * 1.先读20字节的包头, 按包头里的包体长度再等包体, 一帧收全后交给FrameHandler
+ * 2.一次收到的数据里完整的帧直接在收到的缓冲区上解析(MsgFrame只记偏移), 不拷贝;
+ *   只有跨越两次读取的半帧才拷贝到暂存缓冲区, 和后续数据拼起来; 半帧没收全之前后续数据直接追加到暂存缓冲区,
+ *   至少切出一帧后才把剩下的部分拷贝出来
+ * RecordParser每条记录都会getBuffer拷贝一次, 所以这里不用它
+ */
+@Slf4j
+public class FrameDecoder implements Handler<Buffer> {
+
+    private final NetSocket socket;
+
+    private final FrameHandler frameHandler;
+
+    private final int maxBodyLength;
+
+    private final MsgFrame frame = new MsgFrame();
+
+    /**
+     * 上次剩下的半帧
+     */
+    private Buffer pending;
+
+    public FrameDecoder(NetSocket socket, FrameHandler frameHandler, int maxBodyLength) {
+        this.socket = socket;
+        this.frameHandler = frameHandler;
+        this.maxBodyLength = maxBodyLength;
+    }
+
+    @Override
+    public void handle(Buffer chunk) {
+        Buffer data;
+        if (pending == null) {
+            data = chunk;
+        } else {
+            data = pending.appendBuffer(chunk);
+            pending = null;
+        }
+        int length = data.length();
+        int pos = 0;
+        while (length - pos >= FrameCodec.HEADER_SIZE) {
+            int bodyLength = data.getInt(pos + FrameCodec.BODY_LENGTH_OFFSET);
+            if (bodyLength < 0 || bodyLength > maxBodyLength) {
+                log.error("illegal body length {} from {}, close connection", bodyLength, socket.remoteAddress());
+                socket.close();
+                return;
+            }
+            int frameLength = FrameCodec.HEADER_SIZE + bodyLength;
+            if (length - pos < frameLength) {
+                break;
+            }
+            frameHandler.onFrame(socket, frame.wrap(data, pos));
+            pos += frameLength;
+        }
+        if (pos == 0 && data != chunk) {
+            //暂存的半帧还没凑够一帧, 继续在原缓冲区上追加, 不重新拷贝已经攒下的数据
+            pending = data;
+        } else if (pos < length) {
+            //半帧拷贝出来, 预留出整帧的空间, 后面的数据追加时不用扩容
+            int need = length - pos >= FrameCodec.HEADER_SIZE
+                    ? FrameCodec.HEADER_SIZE + data.getInt(pos + FrameCodec.BODY_LENGTH_OFFSET) : FrameCodec.HEADER_SIZE;
+            pending = Buffer.buffer(Math.max(need, length - pos)).appendBuffer(data, pos, length - pos);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.weilai.socket;
+
+import io.vertx.core.net.NetSocket;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按消息类型把帧分发给注册的处理器, 没有注册的类型交给默认处理器
+ * 只在启动时注册, 运行时只读, 多个事件循环可以共用
+ */
+public class FrameDispatcher implements FrameHandler {
+
+    private final Map<Short, FrameHandler> handlers = new HashMap<>();
+
+    private final FrameHandler defaultHandler;
+
+    public FrameDispatcher(FrameHandler defaultHandler) {
+        this.defaultHandler = defaultHandler;
+    }
+
+    public FrameDispatcher register(short msgType, FrameHandler handler) {
+        handlers.put(msgType, handler);
+        return this;
+    }
+
+    @Override
+    public void onFrame(NetSocket socket, MsgFrame frame) {
+        handlers.getOrDefault(frame.msgType(), defaultHandler).onFrame(socket, frame);
+    }
+}
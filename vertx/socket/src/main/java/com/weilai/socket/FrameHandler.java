@@ -0,0 +1,11 @@
+package com.weilai.socket;
+
+import io.vertx.core.net.NetSocket;
+
+/**
+ * 处理一帧, 在连接所在的事件循环线程里调用, 不能阻塞
+ */
+@FunctionalInterface
+public interface FrameHandler {
+    void onFrame(NetSocket socket, MsgFrame frame);
+}
@@ -0,0 +1,102 @@
+package com.weilai.socket;
+
+import com.weilai.bootstrap.VertxBootstrap;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 网关的吞吐随实例数的变化
+ * 对每个实例数启动一次网关, connections个连接尽量快地发送100字节的帧, 统计服务端每秒收到的帧数
+ * 客户端和服务端在同一个进程里, 会互相抢CPU, 只用来比较不同实例数的相对值
+ * 参数: [实例数列表, 默认1,2,4,8] [连接数, 默认16] [每轮秒数, 默认10], 传输层配置见VertxBootstrap
+ */
+@Slf4j
+public class GatewayLoadTest {
+
+    private static final int PORT = 18091;
+
+    private static final int BODY_LENGTH = 100 - FrameCodec.HEADER_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        String[] instanceList = (args.length > 0 ? args[0] : "1,2,4,8").split(",");
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        VertxBootstrap bootstrap = VertxBootstrap.fromSystemProperties();
+        StringBuilder report = new StringBuilder();
+        for (String instanceStr : instanceList) {
+            int instances = Integer.parseInt(instanceStr.trim());
+            double rate = run(instances, connections, seconds, batch(), bootstrap);
+            report.append(String.format("instances=%d connections=%d frames/s=%.0f%n", instances, connections, rate));
+        }
+        log.info("result:\n{}", report);
+    }
+
+    static double run(int instances, int connections, int seconds, Buffer batch, VertxBootstrap bootstrap) throws Exception {
+        Vertx server = bootstrap.createVertx();
+        Vertx client = bootstrap.createVertx();
+        LongAdder frames = new LongAdder();
+        try {
+            CountDownLatch deployed = new CountDownLatch(1);
+            server.deployVerticle(() -> new GatewayVerticle(PORT, (socket, frame) -> frames.increment(), bootstrap.netServerOptions()),
+                    new DeploymentOptions().setInstances(instances), res -> deployed.countDown());
+            deployed.await();
+
+            CountDownLatch connected = new CountDownLatch(connections);
+            for (int i = 0; i < connections; i++) {
+                client.createNetClient(bootstrap.netClientOptions()).connect(PORT, "127.0.0.1", res -> {
+                    if (res.succeeded()) {
+                        pump(res.result(), batch);
+                    } else {
+                        log.error("connect failed", res.cause());
+                    }
+                    connected.countDown();
+                });
+            }
+            connected.await();
+
+            //预热一秒后开始统计
+            Thread.sleep(1000);
+            frames.reset();
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            double rate = frames.sum() * 1e9 / (System.nanoTime() - start);
+            log.info("instances {}: {} frames/s", instances, String.format("%.0f", rate));
+            return rate;
+        } finally {
+            CountDownLatch closed = new CountDownLatch(2);
+            client.close(res -> closed.countDown());
+            server.close(res -> closed.countDown());
+            closed.await();
+        }
+    }
+
+    /**
+     * 64KB的一批帧, 每次write整批发送
+     */
+    static Buffer batch() {
+        Buffer batch = Buffer.buffer();
+        byte[] body = new byte[BODY_LENGTH];
+        for (long i = 0; batch.length() + FrameCodec.HEADER_SIZE + BODY_LENGTH <= 64 * 1024; i++) {
+            FrameCodec.encode(batch, (short) 1, (short) 2, (short) 0, (byte) 0, i, Buffer.buffer(body));
+        }
+        return batch;
+    }
+
+    /**
+     * 一直写到写队列满, 等drain后继续
+     */
+    private static void pump(NetSocket socket, Buffer batch) {
+        while (!socket.writeQueueFull()) {
+            socket.write(batch.copy());
+        }
+        socket.drainHandler(v -> pump(socket, batch));
+    }
+}
@@ -0,0 +1,70 @@
+package com.weilai.socket;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 网关的一个实例, 部署多个实例时每个实例绑定一个事件循环
+ * 1.所有实例监听同一个端口, Vert.x把新连接轮流分给各实例, 连接从此固定在该实例的事件循环上
+ * 2.连接的状态(FrameDecoder里的半帧)只属于一个实例, 只在一个线程里访问, 不需要加锁
+ * 3.FrameDispatcher在启动时注册好, 运行时只读, 各实例共用
+ */
+@Slf4j
+public class GatewayVerticle extends AbstractVerticle {
+
+    //包体最大长度, 超过时认为流已错位, 断开连接
+    static final int MAX_BODY_LENGTH = 1024 * 1024;
+
+    private final int port;
+
+    private final FrameHandler frameHandler;
+
+    private final NetServerOptions options;
+
+    private NetServer netServer;
+
+    public GatewayVerticle(int port, FrameHandler frameHandler, NetServerOptions options) {
+        this.port = port;
+        this.frameHandler = frameHandler;
+        this.options = options;
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        netServer = vertx.createNetServer(options);
+        netServer.connectHandler(this::onConnect);
+        netServer.listen(port, res -> {
+            if (res.succeeded()) {
+                log.info("gateway instance {} startup at port: {}", deploymentID(), port);
+                startPromise.complete();
+            } else {
+                log.error("gateway startup fail", res.cause());
+                startPromise.fail(res.cause());
+            }
+        });
+    }
+
+    private void onConnect(NetSocket netSocket) {
+        //完整的帧直接在接收缓冲区上解析, 按消息类型交给处理器
+        netSocket.handler(new FrameDecoder(netSocket, frameHandler, MAX_BODY_LENGTH));
+
+        //异常 退出处理器
+        netSocket.closeHandler(close -> {
+
+        });
+        netSocket.exceptionHandler(e -> {
+
+        });
+    }
+
+    @Override
+    public void stop() {
+        if (netServer != null) {
+            netServer.close();
+        }
+    }
+}
@@ -4,14 +4,14 @@ import io.vertx.core.buffer.Buffer;
 
 public class MsgCode {
     public static Buffer encodeToBuffer(CommonMsg msg) {
-        return Buffer.buffer().appendInt(msg.getId());
+        int bodyLength = msg.getBody() == null ? 0 : msg.getBody().length;
+        return FrameCodec.encode(Buffer.buffer(FrameCodec.HEADER_SIZE + bodyLength), msg);
     }
 
+    /**
+     * @param buffer 一个完整的帧
+     */
     public static CommonMsg decodeFromBuffer(Buffer buffer) {
-        int id = buffer.getInt(0);
-
-        CommonMsg commonMsg = new CommonMsg();
-        commonMsg.setId(id);
-        return commonMsg;
+        return new MsgFrame().wrap(buffer, 0).toCommonMsg();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+package com.weilai.socket;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * 接收缓冲区里一帧的只读视图, 字段按需从缓冲区读取, 不创建CommonMsg也不拷贝包体
+ * 只在FrameHandler回调期间有效, 回调返回后FrameDecoder会把它指向下一帧;
+ * 要在回调之外使用时调用toCommonMsg或者拷贝body()
+ */
+public class MsgFrame {
+
+    private Buffer buffer;
+
+    private int offset;
+
+    MsgFrame wrap(Buffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    public int frameLength() {
+        return FrameCodec.HEADER_SIZE + bodyLength();
+    }
+
+    public int bodyLength() {
+        return buffer.getInt(offset + FrameCodec.BODY_LENGTH_OFFSET);
+    }
+
+    public byte checksum() {
+        return buffer.getByte(offset + FrameCodec.CHECKSUM_OFFSET);
+    }
+
+    public short msgSrc() {
+        return buffer.getShort(offset + FrameCodec.SRC_OFFSET);
+    }
+
+    public short msgDst() {
+        return buffer.getShort(offset + FrameCodec.DST_OFFSET);
+    }
+
+    public short msgType() {
+        return buffer.getShort(offset + FrameCodec.TYPE_OFFSET);
+    }
+
+    public byte status() {
+        return buffer.getByte(offset + FrameCodec.STATUS_OFFSET);
+    }
+
+    public long msgNo() {
+        return buffer.getLong(offset + FrameCodec.MSG_NO_OFFSET);
+    }
+
+    /**
+     * @return 和接收缓冲区共享内存的包体切片
+     */
+    public Buffer body() {
+        int start = offset + FrameCodec.HEADER_SIZE;
+        return buffer.slice(start, start + bodyLength());
+    }
+
+    public boolean isChecksumValid() {
+        int start = offset + FrameCodec.HEADER_SIZE;
+        return FrameCodec.checksum(buffer, start, start + bodyLength()) == checksum();
+    }
+
+    public CommonMsg toCommonMsg() {
+        int start = offset + FrameCodec.HEADER_SIZE;
+        return new CommonMsg(msgSrc(), msgDst(), msgType(), status(), msgNo(),
+                buffer.getBytes(start, start + bodyLength()));
+    }
+}
@@ -0,0 +1,76 @@
+package com.weilai.socket;
+
+import io.vertx.core.buffer.Buffer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在一个连接上测试request/response: 始终保持inflight个在途请求, 每收到一个回复就再发一个
+ * 参数: [在途请求数, 默认1000] [秒数, 默认10] [超时毫秒, 默认1000]
+ */
+@Slf4j
+public class RequestBenchmark {
+
+    private static final int BODY_LENGTH = 64;
+
+    public static void main(String[] args) throws Exception {
+        int inflight = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long timeoutMs = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        new VertxSocketServer(1).startup();
+        VertxSocketClient client = new VertxSocketClient();
+        client.setRequestTimeoutMs(timeoutMs);
+        client.startup();
+
+        LongAdder replies = new LongAdder();
+        LongAdder failures = new LongAdder();
+        LongAdder latencyNanos = new LongAdder();
+        AtomicLong corrupted = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(inflight);
+        for (int i = 0; i < inflight; i++) {
+            loop(client, deadline, replies, failures, latencyNanos, corrupted, done);
+        }
+        done.await();
+
+        long count = replies.sum();
+        log.info("inflight {}: {} requests/s, avg latency {} us, failures {}, timeouts {}, unmatched {}, corrupted {}",
+                inflight, count / seconds, count == 0 ? 0 : latencyNanos.sum() / count / 1000, failures.sum(),
+                client.getTimeouts(), client.getUnmatchedReplies(), corrupted.get());
+        System.exit(0);
+    }
+
+    /**
+     * 一个请求完成后马上发下一个, 到时间后结束这一路
+     */
+    private static void loop(VertxSocketClient client, long deadline, LongAdder replies, LongAdder failures,
+                             LongAdder latencyNanos, AtomicLong corrupted, CountDownLatch done) {
+        if (System.nanoTime() > deadline) {
+            done.countDown();
+            return;
+        }
+        CommonMsg msg = new CommonMsg();
+        msg.setMsgType(VertxSocketServer.MSG_TYPE_ECHO);
+        msg.setBody(new byte[BODY_LENGTH]);
+        long start = System.nanoTime();
+        client.request(msg).onComplete(ar -> {
+            if (ar.succeeded()) {
+                replies.increment();
+                latencyNanos.add(System.nanoTime() - start);
+                //回复必须对应这个请求
+                if (ar.result().getMsgNo() != msg.getMsgNo()
+                        || !Buffer.buffer(ar.result().getBody()).equals(Buffer.buffer(msg.getBody()))) {
+                    corrupted.incrementAndGet();
+                }
+            } else {
+                failures.increment();
+            }
+            loop(client, deadline, replies, failures, latencyNanos, corrupted, done);
+        });
+    }
+}
@@ -0,0 +1,131 @@
+package com.weilai.socket;
+
+/**
+ * 哈希时间轮, 用来处理大量很少真正触发的超时(请求一般在超时前就完成了)
+ * 1.每个槽位是一个双向链表, 添加和取消都是O(1), 不像优先队列那样每次O(log n)
+ * 2.超时时间按tickMs取整, 只保证不早于设定时间触发; 超过一圈的超时留在槽位里, 转到第几圈时才触发
+ * 3.自己不带线程, 由调用方定期调用advance(例如vertx.setPeriodic), 回调在调用advance的线程里执行
+ * 不是线程安全的, schedule、cancel和advance只在同一个事件循环里调用
+ */
+public class TimerWheel {
+
+    private final long tickMs;
+
+    private final Timeout[] buckets;
+
+    private final int mask;
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * 已经处理到的tick
+     */
+    private long currentTick;
+
+    private int size;
+
+    /**
+     * @param wheelSize 槽位数, 取整为2的幂, 一圈的时长是 tickMs * wheelSize
+     */
+    public TimerWheel(long tickMs, int wheelSize) {
+        this.tickMs = tickMs;
+        int capacity = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.buckets = new Timeout[capacity];
+        for (int i = 0; i < capacity; i++) {
+            buckets[i] = new Timeout(0, null);
+        }
+        this.mask = capacity - 1;
+    }
+
+    public Timeout schedule(long delayMs, Runnable task) {
+        long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000;
+        //向上取整, 不会提前触发
+        long deadlineTick = Math.max((elapsedMs + delayMs + tickMs - 1) / tickMs, currentTick + 1);
+        Timeout timeout = new Timeout(deadlineTick, task);
+        timeout.linkBefore(buckets[(int) (deadlineTick & mask)]);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 触发所有到期的超时, 落后超过一圈时每个槽位也只扫描一次
+     *
+     * @return 触发的数量
+     */
+    public int advance() {
+        long target = (System.nanoTime() - startNanos) / 1_000_000 / tickMs;
+        if (target <= currentTick) {
+            return 0;
+        }
+        long from = currentTick;
+        //先更新, 回调里新加的超时一定落在target之后
+        currentTick = target;
+        long span = Math.min(target - from, buckets.length);
+        int expired = 0;
+        for (long tick = from + 1; tick <= from + span; tick++) {
+            Timeout head = buckets[(int) (tick & mask)];
+            Timeout timeout = head.next;
+            while (timeout != head) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= target) {
+                    timeout.unlink();
+                    size--;
+                    expired++;
+                    timeout.task.run();
+                    if (next != head && next.next == next) {
+                        //回调里取消了下一个, 从头重新扫描这个槽位
+                        next = head.next;
+                    }
+                }
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public class Timeout {
+
+        private final long deadlineTick;
+
+        private final Runnable task;
+
+        private Timeout prev = this;
+
+        private Timeout next = this;
+
+        private Timeout(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+
+        private void linkBefore(Timeout head) {
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = this;
+            next = this;
+        }
+
+        /**
+         * @return 已经触发或者已经取消时返回false
+         */
+        public boolean cancel() {
+            if (next == this) {
+                return false;
+            }
+            unlink();
+            size--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.weilai.socket;
+
+import com.weilai.bootstrap.VertxBootstrap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 在回环地址上比较NIO和epoll传输的网关吞吐, 其他选项(TCP_NODELAY、缓冲区等)取系统属性, 两轮相同
+ * 参数: [实例数, 默认CPU核数] [连接数, 默认16] [每轮秒数, 默认10]
+ */
+@Slf4j
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int instances = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        StringBuilder report = new StringBuilder();
+        for (boolean nativeTransport : new boolean[]{false, true}) {
+            VertxBootstrap bootstrap = VertxBootstrap.fromSystemProperties();
+            bootstrap.setNativeTransport(nativeTransport);
+            double rate = GatewayLoadTest.run(instances, connections, seconds, GatewayLoadTest.batch(), bootstrap);
+            report.append(String.format("%s: %.0f frames/s%n", nativeTransport ? "epoll" : "nio", rate));
+        }
+        log.info("instances={} connections={}\n{}", instances, connections, report);
+    }
+}
@@ -1,57 +1,345 @@
 package com.weilai.socket;
 
+import com.weilai.bootstrap.VertxBootstrap;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.net.NetSocket;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 网关客户端, 任意线程都可以调用send, 实际写socket只在连接的事件循环里进行
+ * 1.send只把编码好的帧放进发送队列, 队列里的字节数超过maxQueuedBytes时返回false, 生产者需要稍后重试
+ * 2.事件循环把队列里的帧合并成一个Buffer再write, 每个Buffer最多maxBatchBytes;
+ *   flushDelayMs大于0时攒够maxBatchBytes或者等待flushDelayMs后才发送, 为0时下一轮事件循环就发送;
+ *   定时器已经设置后又攒够了maxBatchBytes, 取消定时器立即发送
+ * 3.socket的写队列满了(writeQueueFull)就停止发送, 暂停期间send不再调度flush, 只由drainHandler恢复; 未连接时帧留在队列里
+ * 4.request在同一个连接上复用多个在途请求: 每个请求分配一个msgNo, 服务端回复时沿用这个msgNo,
+ *   收到回复后按msgNo在pendingRequests里找到对应的Future; 超时由时间轮处理, 不为每个请求建定时器
+ * 5.连接断开时只让已经写到socket的请求失败; 帧还在发送队列里的请求保持在途, 重连后照常发送并等待回复(仍受超时限制)
+ * 连接、发送、在途请求表和时间轮都只在context这一个事件循环里操作, 不需要加锁
+ */
 @Slf4j
 public class VertxSocketClient {
     private String ip = "127.0.0.1";
     private int port = 8091;
     private volatile NetSocket socket;
-    private Vertx vertx = Vertx.vertx();
-    private boolean isConnected = false;
+    private final VertxBootstrap bootstrap = VertxBootstrap.fromSystemProperties();
+    private Vertx vertx = bootstrap.createVertx();
+    private final Context context = vertx.getOrCreateContext();
+    private volatile boolean isConnected = false;
 
-    public void startup() {
+    /**
+     * 发送队列最多缓存的字节数
+     */
+    @Setter
+    private long maxQueuedBytes = 64 * 1024 * 1024;
+
+    /**
+     * 每次write的最大字节数
+     */
+    @Setter
+    private int maxBatchBytes = 64 * 1024;
+
+    @Setter
+    private long flushDelayMs = 0;
+
+    private final Queue<Buffer> sendQueue = new ConcurrentLinkedQueue<>();
+
+    @Getter
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+
+    @Getter
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * 已经调度的flush是在等flushDelayMs的定时器
+     */
+    private final AtomicBoolean delayedFlush = new AtomicBoolean();
+
+    /**
+     * flushDelayMs定时器的id, 没有时为-1, 只在事件循环里访问
+     */
+    private long flushTimerId = -1;
+
+    /**
+     * socket写队列满, 正在等drainHandler
+     */
+    private volatile boolean paused;
+
+    /**
+     * 因为写队列满而暂停发送的次数
+     */
+    @Getter
+    private final AtomicLong pauses = new AtomicLong();
+
+    /**
+     * request的默认超时时间
+     */
+    @Setter
+    private long requestTimeoutMs = 3000;
+
+    private final AtomicLong nextMsgNo = new AtomicLong();
+
+    /**
+     * msgNo -> 在途请求
+     */
+    private final LongObjectMap<PendingRequest> pendingRequests = new LongObjectMap<>(1024);
+
+    /**
+     * 帧还在发送队列里的请求, 帧 -> 请求, 按对象比较; 写到socket时移除
+     */
+    private final Map<Buffer, PendingRequest> unsentRequests = new IdentityHashMap<>();
 
+    private static final long TICK_MS = 10;
+
+    private final TimerWheel timerWheel = new TimerWheel(TICK_MS, 512);
+
+    @Getter
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * 找不到对应请求的回复数, 一般是超时之后才到的回复
+     */
+    @Getter
+    private final AtomicLong unmatchedReplies = new AtomicLong();
+
+    private static class PendingRequest {
+        private final long msgNo;
+        private final Promise<CommonMsg> promise;
+        private TimerWheel.Timeout timeout;
+
+        /**
+         * 帧还没有写到socket
+         */
+        private boolean unsent = true;
+
+        private PendingRequest(long msgNo, Promise<CommonMsg> promise) {
+            this.msgNo = msgNo;
+            this.promise = promise;
+        }
+    }
+
+    public void startup() {
         log.info("vertx has been loaded: {}", vertx);
-        connectToServer();
-
-        // 线程轮询缓存，缓存中有数据便发送
-        new Thread(() -> {
-            int i = 0;
-            log.info("query thread start");
-            while (true) {
-                try {
-                    Thread.sleep(1000);
-
-                    if (!isConnected) {
-                        continue; // 如果未连接，则跳过发送逻辑
-                    }
+        //在context里连接, 连接的回调、定时器都在这个事件循环里执行
+        context.runOnContext(v -> {
+            vertx.setPeriodic(TICK_MS, id -> timerWheel.advance());
+            connectToServer();
+        });
+    }
+
+    /**
+     * 可以在任意线程调用
+     *
+     * @return 发送队列已满时返回false, 消息没有入队
+     */
+    public boolean send(CommonMsg msg) {
+        Buffer buffer = MsgCode.encodeToBuffer(msg);
+        if (queuedBytes.get() + buffer.length() > maxQueuedBytes) {
+            return false;
+        }
+        enqueue(buffer);
+        return true;
+    }
+
+    public Future<CommonMsg> request(CommonMsg msg) {
+        return request(msg, requestTimeoutMs);
+    }
+
+    /**
+     * 可以在任意线程调用, msg的msgNo会被覆盖; 回调在事件循环里执行, 不能阻塞
+     * send发出的消息不参与匹配, 和request混用时回复按msgNo可能对不上, 只计入unmatchedReplies
+     *
+     * @return 收到回复时完成; 发送队列已满、超时或者连接断开时失败
+     */
+    public Future<CommonMsg> request(CommonMsg msg, long timeoutMs) {
+        Promise<CommonMsg> promise = Promise.promise();
+        long msgNo = nextMsgNo.getAndIncrement();
+        msg.setMsgNo(msgNo);
+        Buffer buffer = MsgCode.encodeToBuffer(msg);
+        if (queuedBytes.get() + buffer.length() > maxQueuedBytes) {
+            promise.fail(new IllegalStateException("send queue full"));
+            return promise.future();
+        }
+        //先登记再入队, 保证回复到达时一定能找到请求
+        context.runOnContext(v -> {
+            PendingRequest pending = new PendingRequest(msgNo, promise);
+            pending.timeout = timerWheel.schedule(timeoutMs, () -> {
+                pendingRequests.remove(msgNo);
+                unsentRequests.remove(buffer);
+                timeouts.incrementAndGet();
+                promise.tryFail(new TimeoutException("request " + msgNo + " timeout after " + timeoutMs + "ms"));
+            });
+            pendingRequests.put(msgNo, pending);
+            unsentRequests.put(buffer, pending);
+            enqueue(buffer);
+        });
+        return promise.future();
+    }
+
+    /**
+     * 只在事件循环里运行
+     */
+    private void onReply(NetSocket netSocket, MsgFrame frame) {
+        PendingRequest pending = pendingRequests.remove(frame.msgNo());
+        if (pending == null) {
+            unmatchedReplies.incrementAndGet();
+            return;
+        }
+        pending.timeout.cancel();
+        //frame只在回调期间有效, 拷贝一份
+        pending.promise.tryComplete(frame.toCommonMsg());
+    }
 
-                    Buffer buffer = MsgCode.encodeToBuffer(new CommonMsg(i++));
+    /**
+     * 连接断开后已写到socket的请求收不到回复了, 直接失败, 不等超时
+     * 帧还在发送队列里的请求没有发出去, 保持在途, 重连后随队列发送
+     */
+    private void failPendingRequests() {
+        if (pendingRequests.size() == unsentRequests.size()) {
+            return;
+        }
+        List<PendingRequest> failed = new ArrayList<>();
+        pendingRequests.forEachValue(pending -> {
+            if (!pending.unsent) {
+                failed.add(pending);
+            }
+        });
+        log.info("fail {} pending requests, {} unsent requests wait for reconnect", failed.size(), unsentRequests.size());
+        for (PendingRequest pending : failed) {
+            pendingRequests.remove(pending.msgNo);
+            pending.timeout.cancel();
+            pending.promise.tryFail(new IllegalStateException("connection closed"));
+        }
+    }
+
+    private void enqueue(Buffer buffer) {
+        queuedBytes.addAndGet(buffer.length());
+        queuedMessages.incrementAndGet();
+        sendQueue.offer(buffer);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!isConnected || paused) {
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (flushDelayMs > 0 && queuedBytes.get() < maxBatchBytes) {
+                delayedFlush.set(true);
+                context.runOnContext(v -> flushTimerId = vertx.setTimer(flushDelayMs, id -> {
+                    flushTimerId = -1;
+                    flush();
+                }));
+            } else {
+                context.runOnContext(v -> flush());
+            }
+        } else if (queuedBytes.get() >= maxBatchBytes && delayedFlush.compareAndSet(true, false)) {
+            //已经攒够一批, 不再等定时器
+            context.runOnContext(v -> flush());
+        }
+    }
 
-                    if (buffer != null && buffer.length() > 0 && socket != null) {
-                        socket.write(buffer);
-                        log.info("msg has been sent to gateway!");
+    /**
+     * 只在事件循环里运行
+     */
+    private void flush() {
+        if (paused) {
+            //暂停前已经调度的flush, 等drainHandler恢复
+            return;
+        }
+        flushScheduled.set(false);
+        delayedFlush.set(false);
+        if (flushTimerId >= 0) {
+            vertx.cancelTimer(flushTimerId);
+            flushTimerId = -1;
+        }
+        NetSocket netSocket = socket;
+        if (netSocket == null || !isConnected) {
+            return;
+        }
+        while (!sendQueue.isEmpty()) {
+            if (netSocket.writeQueueFull()) {
+                paused = true;
+                pauses.incrementAndGet();
+                netSocket.drainHandler(v -> {
+                    paused = false;
+                    flush();
+                });
+                return;
+            }
+            //按实际排队的字节数分配, 消息少时不必每次都分配maxBatchBytes
+            Buffer batch = Buffer.buffer((int) Math.min(maxBatchBytes, queuedBytes.get()));
+            Buffer next;
+            int count = 0;
+            while ((next = sendQueue.peek()) != null
+                    && (batch.length() == 0 || batch.length() + next.length() <= maxBatchBytes)) {
+                sendQueue.poll();
+                if (!unsentRequests.isEmpty()) {
+                    PendingRequest pending = unsentRequests.remove(next);
+                    if (pending != null) {
+                        pending.unsent = false;
                     }
-                } catch (Exception e) {
-                    log.error("msg send fail, continue");
                 }
+                batch.appendBuffer(next);
+                count++;
             }
-        }).start();
+            queuedMessages.addAndGet(-count);
+            queuedBytes.addAndGet(-batch.length());
+            netSocket.write(batch);
+        }
+        //flush过程中入队但没能调度的消息
+        if (!sendQueue.isEmpty()) {
+            scheduleFlush();
+        }
     }
 
     private void connectToServer() {
-        vertx.createNetClient().connect(port, ip, new ClientConnHandler());
+        vertx.createNetClient(bootstrap.netClientOptions()).connect(port, ip, new ClientConnHandler());
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         VertxSocketClient vertxSocketClient = new VertxSocketClient();
         vertxSocketClient.startup();
+
+        AtomicLong sent = new AtomicLong();
+        vertxSocketClient.vertx.setPeriodic(1000, id -> log.info("sent {} msgs/s, queued {} msgs / {} bytes, pauses {}",
+                sent.getAndSet(0), vertxSocketClient.getQueuedMessages(), vertxSocketClient.getQueuedBytes(),
+                vertxSocketClient.getPauses()));
+
+        // 生产者线程不停地发送, 队列满时让出CPU等事件循环发送
+        long i = 0;
+        while (true) {
+            CommonMsg msg = new CommonMsg();
+            msg.setMsgNo(i);
+            msg.setBody(("hello " + i).getBytes());
+            if (vertxSocketClient.send(msg)) {
+                sent.incrementAndGet();
+                i++;
+            } else {
+                Thread.sleep(1);
+            }
+        }
     }
 
     private class ClientConnHandler implements Handler<AsyncResult<NetSocket>> {
@@ -60,14 +348,19 @@ public class VertxSocketClient {
             if (result.succeeded()) {
                 log.info("connect success to remote {}: {}", ip, port);
                 socket = result.result();
+                paused = false;
                 isConnected = true;
+                socket.handler(new FrameDecoder(socket, VertxSocketClient.this::onReply, GatewayVerticle.MAX_BODY_LENGTH));
                 // 关闭处理器
                 socket.closeHandler(close -> {
                     log.info("connect to remote {} closed", socket.remoteAddress());
                     isConnected = false;
+                    failPendingRequests();
                     // 重连
                     reconnect();
                 });
+                // 断线期间积压的消息
+                scheduleFlush();
             } else {
                 log.info("connect failed, please check!");
                 reconnect();
@@ -81,4 +374,4 @@ public class VertxSocketClient {
             });
         }
     }
-}
\ No newline at end of file
+}
@@ -1,78 +1,70 @@
 package com.weilai.socket;
 
-import io.vertx.core.Handler;
+import com.weilai.bootstrap.VertxBootstrap;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.net.NetServer;
-import io.vertx.core.net.NetSocket;
-import io.vertx.core.parsetools.RecordParser;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 网关服务端, 以GatewayVerticle部署instances个实例, 连接分散到多个事件循环线程
+ * MSG_TYPE_ECHO类型的帧原样回复, 供VertxSocketClient.request使用, 其他类型只计数
+ * 参数: [实例数, 默认CPU核数]
+ */
 @Slf4j
 public class VertxSocketServer {
+    public static final short MSG_TYPE_ECHO = 1;
+
     private String ip = "127.0.0.1";
     private int port = 8091;
-    private volatile NetSocket socket;
-    private Vertx vertx = Vertx.vertx();
+    private final VertxBootstrap bootstrap = VertxBootstrap.fromSystemProperties();
+    private Vertx vertx = bootstrap.createVertx();
+
+    /**
+     * GatewayVerticle的实例数, 不超过事件循环线程数(默认2倍CPU核数)才有意义
+     */
+    private final int instances;
+
+    //收到的帧数, 每秒打印一次, 不逐帧打日志
+    private final LongAdder frames = new LongAdder();
+
+    //在收到数据的回调里write, Vert.x等这一批数据处理完才flush, 一次读到的多个请求的回复合并发送
+    private final FrameDispatcher dispatcher = new FrameDispatcher((socket, frame) -> frames.increment())
+            .register(MSG_TYPE_ECHO, (socket, frame) -> socket.write(
+                    FrameCodec.encodeReply(Buffer.buffer(frame.frameLength()), frame, (byte) 0, frame.body())));
+
+    public VertxSocketServer(int instances) {
+        this.instances = instances;
+    }
 
     public void startup() {
         //启动TCP监听
         initRecv();
-    }
-
-    public void initRecv() {
-        NetServer netServer = vertx.createNetServer();
 
-        netServer.connectHandler(new ConnHandler());
-
-        netServer.listen(port, res -> {
-            if (res.succeeded()) {
-                log.info("gateway startup at port: {}", port);
-            } else {
-                log.error("gateway startup fail");
+        vertx.setPeriodic(1000, id -> {
+            long count = frames.sumThenReset();
+            if (count > 0) {
+                log.info("received {} frames/s", count);
             }
         });
     }
 
-    public static void main(String[] args) {
-        VertxSocketServer vertxSocketServer = new VertxSocketServer();
-        vertxSocketServer.startup();
+    public void initRecv() {
+        vertx.deployVerticle(() -> new GatewayVerticle(port, dispatcher, bootstrap.netServerOptions()), new DeploymentOptions().setInstances(instances),
+                res -> {
+                    if (res.succeeded()) {
+                        log.info("gateway startup at port: {} with {} instances", port, instances);
+                    } else {
+                        log.error("gateway startup fail", res.cause());
+                    }
+                });
     }
 
-
-    public class ConnHandler implements Handler<NetSocket> {
-
-        //包头[ id int]
-        private static final int PACKET_HEADER_LENGTH = 4;
-
-        @Override
-        public void handle(NetSocket netSocket) {
-
-            final RecordParser parser = RecordParser.newFixed(PACKET_HEADER_LENGTH);
-            //设置报文接收处理器
-            parser.setOutput(new Handler<Buffer>() {
-                int id = -1;
-
-                @Override
-                public void handle(Buffer buffer) {
-                    //读取报头
-                    id = buffer.getInt(0);  //4字节
-                    CommonMsg commonMsg = new CommonMsg();
-                    commonMsg.setId(id);
-                    log.info(commonMsg.toString());
-                }
-            });
-
-            netSocket.handler(parser);
-
-            //异常 退出处理器
-            netSocket.closeHandler(close -> {
-
-            });
-            netSocket.exceptionHandler(e -> {
-
-            });
-        }
+    public static void main(String[] args) {
+        int instances = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        VertxSocketServer vertxSocketServer = new VertxSocketServer(instances);
+        vertxSocketServer.startup();
     }
-
-}
\ No newline at end of file
+}
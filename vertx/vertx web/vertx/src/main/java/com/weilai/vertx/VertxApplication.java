@@ -1,5 +1,6 @@
 package com.weilai.vertx;
 
+import com.weilai.bootstrap.VertxBootstrap;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.json.JsonObject;
@@ -12,10 +13,11 @@ public class VertxApplication {
     private static final Logger LOGGER = LoggerFactory.getLogger(VertxApplication.class);
 
     public static void main(String[] args) {
-        Vertx vertx = Vertx.vertx();
+        VertxBootstrap bootstrap = VertxBootstrap.fromSystemProperties();
+        Vertx vertx = bootstrap.createVertx();
 
         // 创建 HTTP 服务器
-        HttpServer server = vertx.createHttpServer();
+        HttpServer server = vertx.createHttpServer(bootstrap.httpServerOptions());
 
         // 创建路由器实例
         Router router = Router.router(vertx);